@@ -0,0 +1,21 @@
+package com.gasparbarancelli.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar: the JMH launcher with the GC profiler enabled unless another profiler is
+ * chosen with {@code -prof}, so every run reports allocation rates next to the timings.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-prof")) {
+            arguments.add("-prof");
+            arguments.add("gc");
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(String[]::new));
+    }
+}
@@ -0,0 +1,25 @@
+package com.gasparbarancelli.benchmark;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * The dedicated Valkey/Redis the repository benchmarks run against, at VALKEY_HOST:VALKEY_PORT
+ * (localhost:6379 by default, see {@code benchmarks/docker-compose.yml}).
+ */
+final class BenchmarkValkey {
+
+    private BenchmarkValkey() {
+    }
+
+    static Jedis connect() {
+        return new Jedis(System.getenv().getOrDefault("VALKEY_HOST", "localhost"),
+                Integer.parseInt(System.getenv().getOrDefault("VALKEY_PORT", "6379")));
+    }
+
+    // a purge only moves the repository to a new key epoch, so a trial starts from an empty server instead
+    static void flushAll() {
+        try (Jedis jedis = connect()) {
+            jedis.flushAll();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.gasparbarancelli.benchmark;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.transport.JsonUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonUtilsBenchmark {
+
+    private final byte[] paymentRequest = """
+            {"correlationId":"4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3","amount":19.90}"""
+            .getBytes(StandardCharsets.UTF_8);
+    private final Payment payment = new Payment("4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3", 1990);
+    private final PaymentSummary summary = new PaymentSummary(
+            new PaymentSummary.ProcessorSummary(14_872, 29_595_280),
+            new PaymentSummary.ProcessorSummary(1_031, 2_051_690)
+    );
+    private final byte[] summaryJson = JsonUtils.toPaymentSummaryJsonBytes(summary);
+    private final String serviceHealth = """
+            {"failing":false,"minResponseTime":12}""";
+
+    @Benchmark
+    public Payment parsePaymentRequestDirect() {
+        return JsonUtils.parsePaymentRequestDirect(paymentRequest);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JsonUtils.toJson(payment);
+    }
+
+    @Benchmark
+    public byte[] toPaymentSummaryJsonBytes() {
+        return JsonUtils.toPaymentSummaryJsonBytes(summary);
+    }
+
+    @Benchmark
+    public PaymentSummary parsePaymentSummary() {
+        return JsonUtils.parsePaymentSummary(summaryJson);
+    }
+
+    @Benchmark
+    public Object parseServiceHealth() {
+        return JsonUtils.parseServiceHealth(serviceHealth);
+    }
+}
@@ -0,0 +1,56 @@
+package com.gasparbarancelli.benchmark;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.transport.JsonUtils;
+import com.gasparbarancelli.transport.PaymentPayloadWriter;
+import com.gasparbarancelli.transport.PaymentRequestParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The amount of a payment along its whole way, kept in cents: parsed from the request, forwarded to a
+ * processor, and summed into a summary that is serialized and, in the ledger mode, read back from the peer.
+ * Run with the GC profiler, {@code gc.alloc.rate.norm} is what each step allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentAmountBenchmark {
+
+    private final byte[] request = """
+            {"correlationId":"4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3","amount":19.90}"""
+            .getBytes(StandardCharsets.UTF_8);
+    private final byte[] payload = new byte[PaymentPayloadWriter.MAX_PAYLOAD_SIZE];
+    private final PaymentSummary.ProcessorSummary local = new PaymentSummary.ProcessorSummary(14_872, 29_595_280);
+    private final PaymentSummary.ProcessorSummary remote = new PaymentSummary.ProcessorSummary(1_031, 2_051_690);
+
+    @Benchmark
+    public int parseAndForward() {
+        Payment payment = PaymentRequestParser.parse(request, 0, request.length);
+        return PaymentPayloadWriter.write(payment, payload);
+    }
+
+    @Benchmark
+    public PaymentSummary summaryRoundTrip() {
+        PaymentSummary summary = new PaymentSummary(
+                new PaymentSummary.ProcessorSummary(local.totalRequests() + remote.totalRequests(),
+                        local.totalAmountCents() + remote.totalAmountCents()),
+                remote
+        );
+        return JsonUtils.parsePaymentSummary(JsonUtils.toPaymentSummaryJsonBytes(summary));
+    }
+}
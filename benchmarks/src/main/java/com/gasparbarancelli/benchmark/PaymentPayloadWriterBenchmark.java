@@ -0,0 +1,38 @@
+package com.gasparbarancelli.benchmark;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.transport.JsonUtils;
+import com.gasparbarancelli.transport.PaymentPayloadWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentPayloadWriterBenchmark {
+
+    private final Payment payment = new Payment("4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3", 1990);
+    private final byte[] buffer = new byte[PaymentPayloadWriter.MAX_PAYLOAD_SIZE];
+
+    @Benchmark
+    public String jackson() {
+        return JsonUtils.toJson(payment);
+    }
+
+    @Benchmark
+    public int template() {
+        return PaymentPayloadWriter.write(payment, buffer);
+    }
+}
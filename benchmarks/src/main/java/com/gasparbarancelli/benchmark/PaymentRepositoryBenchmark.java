@@ -0,0 +1,98 @@
+package com.gasparbarancelli.benchmark;
+
+import com.gasparbarancelli.datasource.PaymentRepositoryInMemory;
+import com.gasparbarancelli.datasource.SummaryStrategy;
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.ProcessorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue and write paths of the Valkey repository; range summaries are covered by {@link PaymentSummaryBenchmark}.
+ * Needs a dedicated Valkey/Redis reachable at VALKEY_HOST:VALKEY_PORT (localhost:6379 by default, see
+ * {@code benchmarks/docker-compose.yml}); the setup runs FLUSHALL on it, and every iteration starts on the
+ * new, empty key epoch of a purge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentRepositoryBenchmark {
+
+    @Param({"BUCKETS", "ZSET"})
+    public SummaryStrategy strategy;
+
+    @Param({"64"})
+    public int batchSize;
+
+    private PaymentRepositoryInMemory repository;
+    private Payment payment;
+    private List<Payment> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkValkey.flushAll();
+        repository = new PaymentRepositoryInMemory(strategy);
+        payment = new Payment(UUID.randomUUID().toString(), 1990);
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(new Payment(UUID.randomUUID().toString(), 1990));
+        }
+    }
+
+    // the enqueue benchmarks only grow the queue, so it is emptied between iterations
+    @Setup(Level.Iteration)
+    public void purge() {
+        repository.purgeAllData();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repository.purgeAllData();
+        repository.close();
+    }
+
+    @Benchmark
+    public void enqueuePayment() {
+        repository.enqueuePayment(payment);
+    }
+
+    @Benchmark
+    public void enqueuePayments() {
+        repository.enqueuePayments(batch);
+    }
+
+    @Benchmark
+    public List<Payment> enqueueThenDequeuePayments() {
+        repository.enqueuePayments(batch);
+        return repository.dequeuePayments(batchSize);
+    }
+
+    @Benchmark
+    public void savePayment() {
+        repository.savePayment(payment, ProcessorService.DEFAULT);
+    }
+
+    @Benchmark
+    public Object totalSummary() {
+        return repository.getPaymentsSummary(null, null);
+    }
+}
@@ -0,0 +1,52 @@
+package com.gasparbarancelli.benchmark;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.transport.JsonUtils;
+import com.gasparbarancelli.transport.PaymentRequestParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentRequestParserBenchmark {
+
+    private final byte[] body = """
+            {"correlationId":"4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3","amount":19.90}"""
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public Payment jackson() {
+        return JsonUtils.parsePaymentRequestDirect(body);
+    }
+
+    @Benchmark
+    public Payment jacksonFromStream() throws IOException {
+        return JsonUtils.parsePaymentRequestDirect(new ByteArrayInputStream(body).readAllBytes());
+    }
+
+    @Benchmark
+    public Payment handWritten() {
+        return PaymentRequestParser.parse(body, 0, body.length);
+    }
+
+    @Benchmark
+    public Payment handWrittenFromStream() throws IOException {
+        return PaymentRequestParser.parse(new ByteArrayInputStream(body));
+    }
+}
@@ -0,0 +1,116 @@
+package com.gasparbarancelli.benchmark;
+
+import com.gasparbarancelli.datasource.PaymentRepositoryInMemory;
+import com.gasparbarancelli.datasource.SummaryStrategy;
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.entity.ProcessorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Range summaries over a populated store. Needs a dedicated Valkey/Redis reachable at VALKEY_HOST:VALKEY_PORT
+ * (localhost:6379 by default); the setup runs FLUSHALL on it. The setup saves {@code payments} either as fast as it can
+ * or paced at {@code rate} per second, as a test run does, and prints the memory of the keys storing them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentSummaryBenchmark {
+
+    @Param({"ZSET", "BUCKETS"})
+    public SummaryStrategy strategy;
+
+    @Param({"20000"})
+    public int payments;
+
+    // payments saved per second, 0 for as fast as possible
+    @Param({"0", "1000"})
+    public int rate;
+
+    private PaymentRepositoryInMemory repository;
+    private Instant from;
+    private Instant to;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkValkey.flushAll();
+        repository = new PaymentRepositoryInMemory(strategy);
+
+        long amountCents = 1990;
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < payments; i++) {
+            if (rate > 0) {
+                LockSupport.parkNanos(startNanos + i * 1_000_000_000L / rate - System.nanoTime());
+            }
+            Payment payment = new Payment(UUID.randomUUID().toString(), amountCents);
+            repository.savePayment(payment, i % 3 == 0 ? ProcessorService.FALLBACK : ProcessorService.DEFAULT);
+        }
+        repository.awaitPendingSaves();
+        long end = System.currentTimeMillis();
+
+        long used = keysMemory();
+        System.out.printf("%n%s at %s/s: %d bytes for %d payments, %d bytes per payment%n",
+                strategy, rate == 0 ? "max" : rate, used, payments, used / payments);
+
+        long quarter = (end - start) / 4;
+        from = Instant.ofEpochMilli(start + quarter);
+        to = Instant.ofEpochMilli(end - quarter);
+    }
+
+    // sum of MEMORY USAGE over every key, exact where the used_memory delta is lost in allocator noise
+    private static long keysMemory() {
+        try (Jedis jedis = BenchmarkValkey.connect()) {
+            long total = 0;
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> page = jedis.scan(cursor, new ScanParams().count(1000));
+                for (String key : page.getResult()) {
+                    Long usage = jedis.memoryUsage(key, 0);
+                    total += usage == null ? 0 : usage;
+                }
+                cursor = page.getCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+            return total;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repository.purgeAllData();
+        repository.close();
+    }
+
+    @Benchmark
+    public PaymentSummary rangeSummary() {
+        return repository.getPaymentsSummary(from, to);
+    }
+
+    @Benchmark
+    public PaymentSummary totalSummary() {
+        return repository.getPaymentsSummary(null, null);
+    }
+}
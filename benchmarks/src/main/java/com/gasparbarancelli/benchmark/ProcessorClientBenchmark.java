@@ -0,0 +1,103 @@
+package com.gasparbarancelli.benchmark;
+
+import com.gasparbarancelli.transport.PaymentPayloadWriter;
+import com.gasparbarancelli.transport.ProcessorClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@code POST /payments} to a processor, through {@code java.net.http.HttpClient} as the service used to
+ * do it and through {@link ProcessorClient}, with and without pipelining. Needs a processor at PROCESSOR_URL
+ * (http://localhost:8001 by default), e.g. the stubs of the loadtest module started with {@code --stubs-only}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class ProcessorClientBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(2);
+
+    @Param({"httpclient", "raw", "raw-pipelined"})
+    public String client;
+
+    private URI paymentsUri;
+    private HttpClient httpClient;
+    private ProcessorClient processorClient;
+
+    @State(Scope.Thread)
+    public static class Payload {
+        private final byte[] buffer = new byte[PaymentPayloadWriter.MAX_PAYLOAD_SIZE];
+
+        // every payment needs its own correlation id, or the processor rejects it as a duplicate
+        int next() {
+            return PaymentPayloadWriter.write(UUID.randomUUID().toString(), 1990, System.currentTimeMillis(), buffer);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        paymentsUri = URI.create(System.getenv().getOrDefault("PROCESSOR_URL", "http://localhost:8001") + "/payments");
+        switch (client) {
+            case "httpclient" -> httpClient = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofMillis(100))
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(ForkJoinPool.commonPool())
+                    .followRedirects(HttpClient.Redirect.NEVER)
+                    .build();
+            case "raw" -> processorClient = new ProcessorClient(paymentsUri, 16, 1, Duration.ofMillis(100));
+            case "raw-pipelined" -> processorClient = new ProcessorClient(paymentsUri, 4, 4, Duration.ofMillis(100));
+            default -> throw new IllegalArgumentException(client);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (httpClient != null) {
+            httpClient.close();
+        }
+        if (processorClient != null) {
+            processorClient.close();
+        }
+    }
+
+    @Benchmark
+    public int post(Payload payload) throws IOException, InterruptedException {
+        int length = payload.next();
+        if (processorClient != null) {
+            return processorClient.post(payload.buffer, length, TIMEOUT);
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(paymentsUri)
+                .header("Content-Type", "application/json")
+                .timeout(TIMEOUT)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload.buffer, 0, length))
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,114 @@
+package com.gasparbarancelli.benchmark;
+
+import com.gasparbarancelli.datasource.MappedPaymentRepository;
+import com.gasparbarancelli.datasource.PaymentRepositoryInMemory;
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.repository.PaymentRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Valkey against the memory-mapped ledger: recording a processed payment and summarising a range
+ * once {@code payments} have been recorded. The valkey variant needs a dedicated Valkey/Redis reachable at
+ * VALKEY_HOST:VALKEY_PORT (localhost:6379 by default); the setup runs FLUSHALL on it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositorySaveBenchmark {
+
+    private static final int SAVES_PER_PURGE = 1_000_000;
+
+    @Param({"valkey", "mmap"})
+    public String repositoryType;
+
+    @Param({"100000"})
+    public int payments;
+
+    private PaymentRepository repository;
+    private Path ledgerFile;
+    private int saved;
+    private Payment payment;
+    private Instant from;
+    private Instant to;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if ("mmap".equals(repositoryType)) {
+            openLedger();
+        } else {
+            BenchmarkValkey.flushAll();
+            repository = new PaymentRepositoryInMemory();
+        }
+
+        payment = new Payment(UUID.randomUUID().toString(), 1990);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < payments; i++) {
+            repository.savePayment(payment, i % 3 == 0 ? ProcessorService.FALLBACK : ProcessorService.DEFAULT);
+        }
+        repository.awaitPendingSaves();
+        long end = System.currentTimeMillis();
+
+        long quarter = (end - start) / 4;
+        from = Instant.ofEpochMilli(start + quarter);
+        to = Instant.ofEpochMilli(end - quarter);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.purgeAllData();
+        repository.close();
+        if (ledgerFile != null) {
+            Files.deleteIfExists(ledgerFile);
+        }
+    }
+
+    @Benchmark
+    public void savePayment() throws IOException {
+        if (++saved == SAVES_PER_PURGE) {
+            saved = 0;
+            if (ledgerFile != null) {
+                // a purge never hands the mapped file's slots out again, so the saves move on to a new file;
+                // the old one is dropped without close(), whose force() would charge a disk flush to the saves
+                Files.delete(ledgerFile);
+                openLedger();
+            } else {
+                repository.purgeAllData();
+            }
+        }
+        repository.savePayment(payment, ProcessorService.DEFAULT);
+    }
+
+    private void openLedger() throws IOException {
+        ledgerFile = Files.createTempFile("payments", ".ledger");
+        repository = new MappedPaymentRepository(ledgerFile, payments + SAVES_PER_PURGE);
+    }
+
+    @Benchmark
+    public PaymentSummary rangeSummary() {
+        return repository.getPaymentsSummary(from, to);
+    }
+}
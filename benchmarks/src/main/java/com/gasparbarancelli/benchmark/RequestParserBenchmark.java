@@ -0,0 +1,48 @@
+package com.gasparbarancelli.benchmark;
+
+import com.gasparbarancelli.transport.RequestParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The query of a /payments-summary request, as sent by the load test, and the timestamp formats it accepts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParserBenchmark {
+
+    private final String query = "from=2025-07-15T12:34:56.000Z&to=2025-07-15T12:35:56.000Z";
+    private final String isoInstant = "2025-07-15T12:34:56.000Z";
+    private final String localDateTime = "2025-07-15T12:34:56";
+
+    @Benchmark
+    public Map<String, String> parseQueryParams() {
+        return RequestParser.parseQueryParams(query);
+    }
+
+    @Benchmark
+    public Instant parseFlexibleTimeInstant() {
+        return RequestParser.parseFlexibleTime(isoInstant);
+    }
+
+    // not an Instant, so this also pays for the failed first attempt
+    @Benchmark
+    public Instant parseFlexibleTimeLocalDateTime() {
+        return RequestParser.parseFlexibleTime(localDateTime);
+    }
+}
@@ -0,0 +1,99 @@
+package com.gasparbarancelli.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends a {@link Workload} to the backend's {@code POST /payments}, each request on its own virtual thread
+ * at its scheduled time, and records the latency of every request.
+ */
+class LoadGenerator {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    record Result(int sent, long succeeded, long failed, long elapsedMillis, long[] latenciesMicros) {
+
+        double throughput() {
+            return elapsedMillis == 0 ? 0 : sent * 1000.0 / elapsedMillis;
+        }
+
+        double percentileMillis(double percentile) {
+            long[] sorted = Arrays.stream(latenciesMicros).filter(latency -> latency >= 0).sorted().toArray();
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.clamp(index, 0, sorted.length - 1)] / 1000.0;
+        }
+    }
+
+    private final URI paymentsUri;
+    private final HttpClient client;
+
+    LoadGenerator(URI backend, HttpClient client) {
+        this.paymentsUri = backend.resolve("/payments");
+        this.client = client;
+    }
+
+    Result run(Workload workload) throws InterruptedException {
+        int count = workload.entries().size();
+        long[] latencies = new long[count];
+        Arrays.fill(latencies, -1);
+        AtomicLong succeeded = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(count);
+
+        long start = System.nanoTime();
+        try (ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < count; i++) {
+                Workload.Entry entry = workload.entries().get(i);
+                long wait = start + TimeUnit.MILLISECONDS.toNanos(entry.atMillis()) - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                int index = i;
+                senders.execute(() -> {
+                    try {
+                        long sentAt = System.nanoTime();
+                        if (send(entry)) {
+                            succeeded.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                        latencies[index] = (System.nanoTime() - sentAt) / 1000;
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new Result(count, succeeded.get(), failed.get(), elapsed, latencies);
+    }
+
+    private boolean send(Workload.Entry entry) {
+        String body = "{\"correlationId\":\"" + entry.correlationId() + "\",\"amount\":" + entry.amount().toPlainString() + "}";
+        HttpRequest request = HttpRequest.newBuilder(paymentsUri)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() >= 200 && response.statusCode() < 300;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.gasparbarancelli.loadtest;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rinha-like end-to-end run against a backend: starts the two stub processors (unless their URLs are given),
+ * purges everything, sends the workload, waits until the processors stop receiving payments and checks that
+ * {@code /payments-summary} matches what each processor accepted.
+ *
+ * <pre>
+ * --backend URL             backend under test (http://localhost:9999)
+ * --default-port N          port of the in-process default stub (8001)
+ * --fallback-port N         port of the in-process fallback stub (8002)
+ * --default-script S        default stub timeline, see StubScript (60s/5ms)
+ * --fallback-script S       fallback stub timeline (60s/15ms)
+ * --default-url URL         use an already running default processor instead
+ * --fallback-url URL        use an already running fallback processor instead
+ * --rate N                  requests per second reached by the ramp (500)
+ * --ramp D                  ramp duration (20s)
+ * --duration D              total duration (60s)
+ * --replay FILE             replay a JSON lines workload instead of the ramp
+ * --settle D                longest wait for the processors to stop receiving payments (30s)
+ * --stubs-only              only start the stubs and keep them running
+ * </pre>
+ */
+public class LoadTest {
+
+    private static final Pattern SUMMARY = Pattern.compile(
+            "\"(default|fallback)\"\\s*:\\s*\\{\\s*\"totalRequests\"\\s*:\\s*(\\d+)\\s*,\\s*\"totalAmount\"\\s*:\\s*([0-9.]+)");
+    private static final Pattern PROCESSOR_SUMMARY = Pattern.compile(
+            "\"totalRequests\"\\s*:\\s*(\\d+)\\s*,\\s*\"totalAmount\"\\s*:\\s*([0-9.]+)");
+
+    private record Totals(long requests, BigDecimal amount) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+
+        String defaultUrl = options.get("default-url");
+        String fallbackUrl = options.get("fallback-url");
+        StubProcessor defaultStub = null;
+        StubProcessor fallbackStub = null;
+        if (defaultUrl == null) {
+            int port = Integer.parseInt(options.getOrDefault("default-port", "8001"));
+            defaultStub = new StubProcessor("default", port,
+                    StubScript.parse(options.getOrDefault("default-script", "60s/5ms")));
+            defaultStub.start();
+            defaultUrl = "http://localhost:" + port;
+        }
+        if (fallbackUrl == null) {
+            int port = Integer.parseInt(options.getOrDefault("fallback-port", "8002"));
+            fallbackStub = new StubProcessor("fallback", port,
+                    StubScript.parse(options.getOrDefault("fallback-script", "60s/15ms")));
+            fallbackStub.start();
+            fallbackUrl = "http://localhost:" + port;
+        }
+        if (options.containsKey("stubs-only")) {
+            Thread.currentThread().join();
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+        URI backend = URI.create(options.getOrDefault("backend", "http://localhost:9999"));
+
+        post(client, backend.resolve("/purge-payments"));
+        post(client, URI.create(defaultUrl + "/admin/purge-payments"));
+        post(client, URI.create(fallbackUrl + "/admin/purge-payments"));
+
+        Workload workload = options.containsKey("replay")
+                ? Workload.replay(Path.of(options.get("replay")))
+                : Workload.ramp(
+                        Double.parseDouble(options.getOrDefault("rate", "500")),
+                        StubScript.parseMillis(options.getOrDefault("ramp", "20s")),
+                        StubScript.parseMillis(options.getOrDefault("duration", "60s")));
+        System.out.printf("sending %d payments to %s%n", workload.entries().size(), backend);
+
+        LoadGenerator.Result result = new LoadGenerator(backend, client).run(workload);
+        long settled = settle(client, defaultUrl, fallbackUrl, StubScript.parseMillis(options.getOrDefault("settle", "30s")));
+        System.out.printf("settled    %.1fs after the last request%n", settled / 1000.0);
+
+        String summary = get(client, backend.resolve("/payments-summary"));
+        Map<String, Totals> backendTotals = new HashMap<>();
+        Matcher matcher = SUMMARY.matcher(summary);
+        while (matcher.find()) {
+            backendTotals.put(matcher.group(1), new Totals(Long.parseLong(matcher.group(2)), new BigDecimal(matcher.group(3))));
+        }
+        Totals defaultTotals = processorTotals(get(client, URI.create(defaultUrl + "/admin/payments-summary")));
+        Totals fallbackTotals = processorTotals(get(client, URI.create(fallbackUrl + "/admin/payments-summary")));
+
+        System.out.printf("requests   %d sent, %d accepted, %d failed in %.1fs (%.1f req/s)%n",
+                result.sent(), result.succeeded(), result.failed(), result.elapsedMillis() / 1000.0, result.throughput());
+        System.out.printf("latency    p50 %.2fms  p90 %.2fms  p99 %.2fms  max %.2fms%n",
+                result.percentileMillis(50), result.percentileMillis(90),
+                result.percentileMillis(99), result.percentileMillis(100));
+        boolean consistent = compare("default", backendTotals.get("default"), defaultTotals)
+                & compare("fallback", backendTotals.get("fallback"), fallbackTotals);
+        long processed = defaultTotals.requests() + fallbackTotals.requests();
+        System.out.printf("processed  %d of %d accepted payments reached a processor%n", processed, result.succeeded());
+
+        if (defaultStub != null) {
+            defaultStub.stop();
+        }
+        if (fallbackStub != null) {
+            fallbackStub.stop();
+        }
+        System.exit(consistent ? 0 : 1);
+    }
+
+    // the backend keeps draining its queue after the last request; waits until the processors saw nothing new for 2s
+    private static long settle(HttpClient client, String defaultUrl, String fallbackUrl, long maxMillis) throws Exception {
+        long start = System.currentTimeMillis();
+        long last = -1;
+        int stablePolls = 0;
+        while (stablePolls < 2 && System.currentTimeMillis() - start < maxMillis) {
+            Thread.sleep(1000);
+            long received = processorTotals(get(client, URI.create(defaultUrl + "/admin/payments-summary"))).requests()
+                    + processorTotals(get(client, URI.create(fallbackUrl + "/admin/payments-summary"))).requests();
+            stablePolls = received == last ? stablePolls + 1 : 0;
+            last = received;
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static boolean compare(String processor, Totals backend, Totals received) {
+        boolean consistent = backend != null
+                && backend.requests() == received.requests()
+                && backend.amount().compareTo(received.amount()) == 0;
+        System.out.printf("%-10s backend %s / %s, processor %d / %s -> %s%n", processor,
+                backend == null ? "-" : backend.requests(), backend == null ? "-" : backend.amount(),
+                received.requests(), received.amount(), consistent ? "OK" : "INCONSISTENT");
+        return consistent;
+    }
+
+    private static Totals processorTotals(String json) {
+        Matcher matcher = PROCESSOR_SUMMARY.matcher(json);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Unexpected processor summary: " + json);
+        }
+        return new Totals(Long.parseLong(matcher.group(1)), new BigDecimal(matcher.group(2)));
+    }
+
+    private static String get(HttpClient client, URI uri) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private static void post(HttpClient client, URI uri) throws Exception {
+        client.send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,159 @@
+package com.gasparbarancelli.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for a Rinha payment processor following a {@link StubScript}:
+ * <ul>
+ *     <li>{@code POST /payments} waits the phase latency and answers 200, 500 while failing, or 422 for a
+ *     correlation id it already accepted;</li>
+ *     <li>{@code GET /payments/service-health} reports the phase and answers 429 when called again within 5s;</li>
+ *     <li>{@code GET /admin/payments-summary} and {@code POST /admin/purge-payments} expose and reset what was accepted.</li>
+ * </ul>
+ */
+class StubProcessor {
+
+    private static final Pattern CORRELATION_ID = Pattern.compile("\"correlationId\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern AMOUNT = Pattern.compile("\"amount\"\\s*:\\s*([0-9.]+)");
+    private static final long HEALTH_INTERVAL_MILLIS = 5000;
+
+    private final String name;
+    private final StubScript script;
+    private final HttpServer server;
+    private final Set<String> accepted = ConcurrentHashMap.newKeySet();
+    private final AtomicLong acceptedCents = new AtomicLong();
+    private final AtomicLong lastHealthCheck = new AtomicLong();
+    private volatile long startedAt;
+
+    StubProcessor(String name, int port, StubScript script) throws IOException {
+        this.name = name;
+        this.script = script;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/payments", this::handle);
+        server.createContext("/admin", this::handleAdmin);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    void start() {
+        startedAt = System.currentTimeMillis();
+        server.start();
+        System.out.printf("stub %s listening on %d%n", name, server.getAddress().getPort());
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    String name() {
+        return name;
+    }
+
+    long acceptedCount() {
+        return accepted.size();
+    }
+
+    long acceptedCents() {
+        return acceptedCents.get();
+    }
+
+    void reset() {
+        accepted.clear();
+        acceptedCents.set(0);
+    }
+
+    private StubScript.Phase phase() {
+        return script.at(System.currentTimeMillis() - startedAt);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/payments/service-health") && "GET".equals(exchange.getRequestMethod())) {
+                handleHealth(exchange);
+            } else if (path.equals("/payments") && "POST".equals(exchange.getRequestMethod())) {
+                handlePayment(exchange);
+            } else {
+                send(exchange, 404, "");
+            }
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        long now = System.currentTimeMillis();
+        long last = lastHealthCheck.get();
+        if (now - last < HEALTH_INTERVAL_MILLIS || !lastHealthCheck.compareAndSet(last, now)) {
+            send(exchange, 429, "");
+            return;
+        }
+        StubScript.Phase phase = phase();
+        send(exchange, 200, "{\"failing\":" + phase.failing() + ",\"minResponseTime\":" + phase.latencyMillis() + "}");
+    }
+
+    private void handlePayment(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        Matcher id = CORRELATION_ID.matcher(body);
+        Matcher amount = AMOUNT.matcher(body);
+        if (!id.find() || !amount.find()) {
+            send(exchange, 400, "");
+            return;
+        }
+
+        StubScript.Phase phase = phase();
+        if (phase.latencyMillis() > 0) {
+            try {
+                Thread.sleep(phase.latencyMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (phase.failing()) {
+            send(exchange, 500, "");
+            return;
+        }
+        if (!accepted.add(id.group(1))) {
+            send(exchange, 422, "");
+            return;
+        }
+        acceptedCents.addAndGet(new BigDecimal(amount.group(1)).movePointRight(2).longValueExact());
+        send(exchange, 200, "{\"message\":\"payment processed successfully\"}");
+    }
+
+    private void handleAdmin(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/admin/payments-summary")) {
+                send(exchange, 200, "{\"totalRequests\":" + acceptedCount()
+                        + ",\"totalAmount\":" + BigDecimal.valueOf(acceptedCents(), 2) + "}");
+            } else if (path.equals("/admin/purge-payments")) {
+                reset();
+                send(exchange, 200, "{\"message\":\"All payments purged.\"}");
+            } else {
+                send(exchange, 404, "");
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.gasparbarancelli.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timeline of a stub processor, written as comma separated phases {@code <duration>/<latency>} or
+ * {@code <duration>/fail}, e.g. {@code 20s/5ms,10s/fail,30s/80ms}. Durations and latencies take an
+ * {@code ms} or {@code s} suffix. The last phase lasts until the stub stops.
+ */
+record StubScript(List<Phase> phases) {
+
+    record Phase(long durationMillis, long latencyMillis, boolean failing) {
+    }
+
+    static StubScript parse(String script) {
+        List<Phase> phases = new ArrayList<>();
+        for (String phase : script.split(",")) {
+            String[] parts = phase.trim().split("/");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid phase '" + phase + "', expected <duration>/<latency|fail>");
+            }
+            long duration = parseMillis(parts[0]);
+            boolean failing = "fail".equalsIgnoreCase(parts[1].trim());
+            phases.add(new Phase(duration, failing ? 0 : parseMillis(parts[1]), failing));
+        }
+        return new StubScript(List.copyOf(phases));
+    }
+
+    Phase at(long elapsedMillis) {
+        long end = 0;
+        for (Phase phase : phases) {
+            end += phase.durationMillis();
+            if (elapsedMillis < end) {
+                return phase;
+            }
+        }
+        return phases.getLast();
+    }
+
+    static long parseMillis(String value) {
+        String text = value.trim().toLowerCase();
+        if (text.endsWith("ms")) {
+            return Long.parseLong(text.substring(0, text.length() - 2));
+        }
+        if (text.endsWith("s")) {
+            return Long.parseLong(text.substring(0, text.length() - 1)) * 1000;
+        }
+        return Long.parseLong(text);
+    }
+}
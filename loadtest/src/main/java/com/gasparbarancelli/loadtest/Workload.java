@@ -0,0 +1,65 @@
+package com.gasparbarancelli.loadtest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Payments to send and when to send them, relative to the start of the run.
+ */
+record Workload(List<Entry> entries) {
+
+    private static final Pattern AT = Pattern.compile("\"atMs\"\\s*:\\s*(\\d+)");
+    private static final Pattern CORRELATION_ID = Pattern.compile("\"correlationId\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern AMOUNT = Pattern.compile("\"amount\"\\s*:\\s*([0-9.]+)");
+    private static final BigDecimal DEFAULT_AMOUNT = new BigDecimal("19.90");
+
+    record Entry(long atMillis, String correlationId, BigDecimal amount) {
+    }
+
+    /**
+     * Rate growing linearly from 1 to {@code maxRate} requests per second over {@code rampMillis},
+     * then steady until {@code durationMillis}.
+     */
+    static Workload ramp(double maxRate, long rampMillis, long durationMillis) {
+        List<Entry> entries = new ArrayList<>();
+        double at = 0;
+        while (at < durationMillis) {
+            entries.add(new Entry((long) at, UUID.randomUUID().toString(), DEFAULT_AMOUNT));
+            double rate = at < rampMillis ? Math.max(1, maxRate * at / rampMillis) : maxRate;
+            at += 1000 / rate;
+        }
+        return new Workload(entries);
+    }
+
+    /**
+     * Replays a JSON lines file, one payment per line: {@code {"atMs":120,"correlationId":"...","amount":19.90}}.
+     * {@code correlationId} and {@code amount} are optional; lines are sent in {@code atMs} order.
+     */
+    static Workload replay(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            Matcher at = AT.matcher(line);
+            if (!at.find()) {
+                throw new IllegalArgumentException("Missing atMs in replay line: " + line);
+            }
+            Matcher id = CORRELATION_ID.matcher(line);
+            Matcher amount = AMOUNT.matcher(line);
+            entries.add(new Entry(
+                    Long.parseLong(at.group(1)),
+                    id.find() ? id.group(1) : UUID.randomUUID().toString(),
+                    amount.find() ? new BigDecimal(amount.group(1)) : DEFAULT_AMOUNT));
+        }
+        entries.sort((a, b) -> Long.compare(a.atMillis(), b.atMillis()));
+        return new Workload(entries);
+    }
+}
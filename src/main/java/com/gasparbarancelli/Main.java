@@ -1,16 +1,21 @@
 package com.gasparbarancelli;
 
 import com.gasparbarancelli.interactor.PaymentService;
+import com.gasparbarancelli.transport.NioHttpServer;
 import com.gasparbarancelli.transport.PaymentHandler;
 import com.sun.net.httpserver.HttpServer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
 import java.util.Optional;
 import java.util.concurrent.Executors;
 
 public class Main {
     private static final String HTTP_PORT_ENV = "HTTP_PORT";
+    private static final String HTTP_SERVER_ENV = "HTTP_SERVER";
+    private static final String HTTP_SOCKET_PATH_ENV = "HTTP_SOCKET_PATH";
     private static final int BACKLOG = 4096;
 
     static {
@@ -29,27 +34,41 @@ public class Main {
     public static void main(String[] args) throws IOException {
         long startTime = System.nanoTime();
 
-        var inetSocketAddress = getSocketAddress();
-        if (inetSocketAddress.isEmpty()) {
-            System.out.println("Defina a variavel de ambiente HTTP_PORT para iniciar o servidor web");
+        var socketAddress = getSocketAddress();
+        if (socketAddress.isEmpty()) {
+            System.out.println("Defina a variavel de ambiente HTTP_PORT ou HTTP_SOCKET_PATH para iniciar o servidor web");
             return;
         }
 
-        var server = HttpServer.create(inetSocketAddress.get(), BACKLOG);
         var paymentService = new PaymentService();
         var paymentHandler = new PaymentHandler(paymentService);
-
-        server.createContext("/payments", paymentHandler::handlePayments);
-        server.createContext("/payments-summary", paymentHandler::handlePaymentsSummary);
-        server.createContext("/purge-payments", paymentHandler::handlePurgePayments);
-
         var executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().factory());
-        server.setExecutor(executor);
 
         System.out.println("Rinha Backend 2025");
-        System.out.println("Porta: " + inetSocketAddress.get().getPort());
+        if (socketAddress.get() instanceof UnixDomainSocketAddress unixAddress) {
+            System.out.println("Socket: " + unixAddress.getPath());
+        } else {
+            System.out.println("Porta: " + ((InetSocketAddress) socketAddress.get()).getPort());
+        }
+        System.out.println("Prefetch: " + paymentService.prefetchDepth());
 
-        server.start();
+        if (socketAddress.get() instanceof UnixDomainSocketAddress
+                || "nio".equalsIgnoreCase(System.getenv(HTTP_SERVER_ENV))) {
+            var server = new NioHttpServer(socketAddress.get(), BACKLOG, paymentHandler, executor);
+            System.out.println("Servidor: NIO");
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        } else {
+            var server = HttpServer.create((InetSocketAddress) socketAddress.get(), BACKLOG);
+            server.createContext("/payments", paymentHandler::handlePayments);
+            server.createContext("/payments-summary", paymentHandler::handlePaymentsSummary);
+            server.createContext("/purge-payments", paymentHandler::handlePurgePayments);
+            server.createContext("/internal/ledger", paymentHandler::handleLedgerSummary);
+            server.createContext("/internal/ledger-purge", paymentHandler::handleLedgerPurge);
+            server.createContext("/metrics", paymentHandler::handleMetrics);
+            server.setExecutor(executor);
+            server.start();
+        }
 
         long endTime = System.nanoTime();
         long startupTimeNanos = endTime - startTime;
@@ -67,7 +86,12 @@ public class Main {
         }));
     }
 
-    private static Optional<InetSocketAddress> getSocketAddress() {
+    private static Optional<SocketAddress> getSocketAddress() {
+        String socketPath = System.getenv(HTTP_SOCKET_PATH_ENV);
+        if (socketPath != null && !socketPath.isEmpty()) {
+            return Optional.of(UnixDomainSocketAddress.of(socketPath));
+        }
+
         String port = System.getenv(HTTP_PORT_ENV);
         if (port == null || port.isEmpty()) {
             return Optional.empty();
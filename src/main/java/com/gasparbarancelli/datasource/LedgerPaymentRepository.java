@@ -0,0 +1,181 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.entity.ProcessorHealth;
+import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.entity.RetryPayment;
+import com.gasparbarancelli.entity.SummaryVersion;
+import com.gasparbarancelli.repository.PaymentRepository;
+import com.gasparbarancelli.repository.PeerUnavailableException;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the processed payments in an in-process {@link PaymentLedger} and delegates the queue and the
+ * health state to another repository. The global summary adds the peer instance's local summary,
+ * fetched from its {@code /internal/ledger} endpoint. While the peer cannot be reached the global summary and
+ * purge throw {@link PeerUnavailableException} instead of answering for half of the data.
+ */
+public class LedgerPaymentRepository implements PaymentRepository {
+
+    private final PaymentRepository delegate;
+    private final PaymentLedger ledger = new PaymentLedger();
+    private final LedgerPeerClient peer;
+
+    public LedgerPaymentRepository(PaymentRepository delegate, String peerUrl) {
+        this.delegate = delegate;
+        this.peer = (peerUrl == null || peerUrl.isEmpty()) ? null : new LedgerPeerClient(peerUrl);
+    }
+
+    @Override
+    public void enqueuePayment(Payment request) {
+        delegate.enqueuePayment(request);
+    }
+
+    @Override
+    public void enqueuePayments(List<Payment> requests) {
+        delegate.enqueuePayments(requests);
+    }
+
+    @Override
+    public Payment dequeuePayment(int workerId) {
+        return delegate.dequeuePayment(workerId);
+    }
+
+    @Override
+    public List<Payment> dequeuePayments(int count) {
+        return delegate.dequeuePayments(count);
+    }
+
+    @Override
+    public long queueLength() {
+        return delegate.queueLength();
+    }
+
+    @Override
+    public long remainingCapacity() {
+        // the ledger columns grow as needed
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public void signalIdle(String instanceId, long ttlMillis) {
+        delegate.signalIdle(instanceId, ttlMillis);
+    }
+
+    @Override
+    public boolean isPeerIdle(String instanceId) {
+        return delegate.isPeerIdle(instanceId);
+    }
+
+    @Override
+    public void scheduleRetry(RetryPayment retry, long dueAtMillis) {
+        delegate.scheduleRetry(retry, dueAtMillis);
+    }
+
+    @Override
+    public List<RetryPayment> claimDueRetries(long nowMillis, int count) {
+        return delegate.claimDueRetries(nowMillis, count);
+    }
+
+    @Override
+    public void savePayment(Payment request, ProcessorService service) {
+        ledger.record(System.currentTimeMillis(), request.amountCents(), service);
+    }
+
+    @Override
+    public void awaitPendingSaves() {
+        // saves go straight to the local ledger, and the peer answers from its own
+    }
+
+    @Override
+    public PaymentSummary getPaymentsSummary(Instant from, Instant to) {
+        PaymentSummary local = getLocalPaymentsSummary(from, to);
+        if (peer == null) {
+            return local;
+        }
+        PaymentSummary remote = peer.summary(from, to);
+        return new PaymentSummary(
+                add(local.defaultProcessor(), remote.defaultProcessor()),
+                add(local.fallback(), remote.fallback())
+        );
+    }
+
+    @Override
+    public PaymentSummary getLocalPaymentsSummary(Instant from, Instant to) {
+        long[] totals = (from != null && to != null)
+                ? ledger.summary(from.toEpochMilli(), to.toEpochMilli())
+                : ledger.summary(Long.MIN_VALUE, Long.MAX_VALUE);
+        return new PaymentSummary(
+                new PaymentSummary.ProcessorSummary(totals[0], totals[1]),
+                new PaymentSummary.ProcessorSummary(totals[2], totals[3])
+        );
+    }
+
+    // half of the data lives in the peer, whose changes are not tracked here
+    @Override
+    public SummaryVersion getSummaryVersion() {
+        return null;
+    }
+
+    @Override
+    public long getLateWrites(long fromMillis, long toMillis) {
+        return 0;
+    }
+
+    @Override
+    public boolean acquireHealthLeadership(String ownerId, long leaseMillis) {
+        return delegate.acquireHealthLeadership(ownerId, leaseMillis);
+    }
+
+    @Override
+    public void releaseHealthLeadership(String ownerId) {
+        delegate.releaseHealthLeadership(ownerId);
+    }
+
+    @Override
+    public void publishProcessorHealth(ProcessorHealth health) {
+        delegate.publishProcessorHealth(health);
+    }
+
+    @Override
+    public ProcessorHealth getProcessorHealth() {
+        return delegate.getProcessorHealth();
+    }
+
+    @Override
+    public void subscribeProcessorHealth(Consumer<ProcessorHealth> listener) {
+        delegate.subscribeProcessorHealth(listener);
+    }
+
+    @Override
+    public void purgeAllData() {
+        delegate.purgeAllData();
+        ledger.clear();
+        if (peer != null) {
+            peer.purge();
+        }
+    }
+
+    @Override
+    public void purgeLocalData() {
+        ledger.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    private static PaymentSummary.ProcessorSummary add(PaymentSummary.ProcessorSummary a,
+                                                        PaymentSummary.ProcessorSummary b) {
+        return new PaymentSummary.ProcessorSummary(
+                a.totalRequests() + b.totalRequests(),
+                a.totalAmountCents() + b.totalAmountCents()
+        );
+    }
+}
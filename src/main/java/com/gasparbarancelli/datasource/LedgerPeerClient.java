@@ -0,0 +1,84 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.metrics.Counter;
+import com.gasparbarancelli.metrics.Metrics;
+import com.gasparbarancelli.repository.PeerUnavailableException;
+import com.gasparbarancelli.transport.JsonUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Calls the peer's internal ledger routes. A failed call is repeated once, covering a dropped keep-alive
+ * connection or a brief pause of the peer; a second failure throws {@link PeerUnavailableException}.
+ */
+class LedgerPeerClient {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(200);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(500);
+
+    private final Counter failures = Metrics.counter("ledger_peer_failures_total",
+            "Calls to the peer ledger that failed after their retry.", null);
+    private final HttpClient httpClient;
+    private final String peerUrl;
+
+    LedgerPeerClient(String peerUrl) {
+        this.peerUrl = peerUrl;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    PaymentSummary summary(Instant from, Instant to) {
+        String query = (from != null && to != null) ? "?from=" + from + "&to=" + to : "";
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(peerUrl + "/internal/ledger" + query))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        return JsonUtils.parsePaymentSummary(send(request));
+    }
+
+    void purge() {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(peerUrl + "/internal/ledger-purge"))
+                .timeout(REQUEST_TIMEOUT)
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        send(request);
+    }
+
+    private byte[] send(HttpRequest request) {
+        try {
+            return sendOnce(request);
+        } catch (IOException first) {
+            try {
+                return sendOnce(request);
+            } catch (IOException e) {
+                failures.increment();
+                throw new PeerUnavailableException("Peer ledger unavailable", e);
+            }
+        }
+    }
+
+    private byte[] sendOnce(HttpRequest request) throws IOException {
+        try {
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                throw new IOException("Peer ledger answered " + response.statusCode());
+            }
+            return response.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PeerUnavailableException("Peer ledger request interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.entity.ProcessorHealth;
+import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.entity.RetryPayment;
+import com.gasparbarancelli.entity.SummaryVersion;
+import com.gasparbarancelli.repository.PaymentRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Valkey-free repository. Processed payments go to an append-only file of fixed-width records, memory-mapped
+ * by every instance sharing the volume; slots are claimed with an atomic add on the tail cursor kept in the
+ * file header, so writers from different processes never overlap. The cursor packs the epoch with the tail, so a
+ * slot is always claimed together with the epoch it is written under. The health lease and the processor state
+ * also live in the header, the processor state packed in a single word that subscribers watch for changes. The
+ * payment queue and the retries are local to the instance.
+ *
+ * <pre>
+ * header (64 bytes): magic | cursor (epoch:24 | tail:40) | epoch start | processor health | health lease (owner:20 | expiry:44) | version | last lease owner
+ * processor health: published bit | preferred bit | default failing bit | fallback failing bit | default min (30) | fallback min (30)
+ * record (24 bytes): timestamp | cents | commit (epoch &lt;&lt; 1 | fallback bit)
+ * </pre>
+ * A purge only bumps the epoch in the cursor and leaves the tail where it is, so a slot is never handed out
+ * twice: a writer that claimed its slot just before the purge finishes a record of the old epoch, which
+ * summaries ignore, without touching the slots of the new one. The space of purged records is not reclaimed,
+ * so {@code capacity} has to cover every payment of the file's lifetime. The epoch start remembers the tail
+ * at the last purge, a lower bound that lets summaries skip the purged records. A record being written is
+ * kept out of a summary by its commit: the slot holds 0 until the release store of the commit, which follows
+ * the timestamp and cents and is read with acquire before them.
+ */
+public class MappedPaymentRepository implements PaymentRepository {
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long MAGIC = 0x52494E48414C4432L;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CURSOR_OFFSET = 8;
+    private static final int EPOCH_START_OFFSET = 16;
+    private static final int PROCESSOR_HEALTH_OFFSET = 24;
+    private static final int HEALTH_LEASE_OFFSET = 32;
+    private static final int VERSION_OFFSET = 40;
+    private static final int LAST_OWNER_OFFSET = 48;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 24;
+    private static final int TIMESTAMP_FIELD = 0;
+    private static final int CENTS_FIELD = 8;
+    private static final int COMMIT_FIELD = 16;
+    private static final long HEALTH_WATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long RESPONSE_TIME_MASK = (1L << 30) - 1;
+    private static final int EPOCH_SHIFT = 40;
+    private static final long TAIL_MASK = (1L << EPOCH_SHIFT) - 1;
+    private static final int LEASE_OWNER_SHIFT = 44;
+    private static final long LEASE_EXPIRY_MASK = (1L << LEASE_OWNER_SHIFT) - 1;
+    private static final long LEASE_OWNER_MASK = (1L << (64 - LEASE_OWNER_SHIFT)) - 1;
+    // a mapping is addressed with int offsets
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private final LinkedBlockingQueue<Payment> queue = new LinkedBlockingQueue<>();
+    private final PriorityBlockingQueue<ScheduledRetry> retries =
+            new PriorityBlockingQueue<>(64, Comparator.comparingLong(ScheduledRetry::dueAtMillis));
+    private final Map<String, Long> leaseOwners = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    private record ScheduledRetry(RetryPayment retry, long dueAtMillis) {
+    }
+
+    public MappedPaymentRepository(Path file, int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Ledger capacity must be between 1 and " + MAX_CAPACITY + ", was " + capacity);
+        }
+        this.capacity = capacity;
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // held while the file is sized and its header initialised, so a second instance starting
+                // at the same time finds either a blank file or a complete header
+                FileLock lock = channel.lock();
+                try {
+                    if (channel.size() < size) {
+                        channel.truncate(size);
+                        channel.write(ByteBuffer.allocate(1), size - 1);
+                    }
+                    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    if ((long) LONGS.getVolatile(buffer, MAGIC_OFFSET) != MAGIC) {
+                        LONGS.setVolatile(buffer, CURSOR_OFFSET, 1L << EPOCH_SHIFT);
+                        LONGS.setVolatile(buffer, EPOCH_START_OFFSET, 0L);
+                        LONGS.setVolatile(buffer, PROCESSOR_HEALTH_OFFSET, 0L);
+                        LONGS.setVolatile(buffer, HEALTH_LEASE_OFFSET, 0L);
+                        LONGS.setVolatile(buffer, VERSION_OFFSET, 0L);
+                        LONGS.setVolatile(buffer, LAST_OWNER_OFFSET, 0L);
+                        LONGS.setVolatile(buffer, MAGIC_OFFSET, MAGIC);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map payment ledger " + file, e);
+        }
+    }
+
+    @Override
+    public void enqueuePayment(Payment request) {
+        queue.offer(request);
+    }
+
+    @Override
+    public void enqueuePayments(List<Payment> requests) {
+        queue.addAll(requests);
+    }
+
+    @Override
+    public Payment dequeuePayment(int workerId) {
+        try {
+            return queue.poll(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public List<Payment> dequeuePayments(int count) {
+        List<Payment> payments = new ArrayList<>(Math.min(count, queue.size()));
+        queue.drainTo(payments, count);
+        return payments;
+    }
+
+    @Override
+    public long queueLength() {
+        return queue.size();
+    }
+
+    @Override
+    public long remainingCapacity() {
+        return capacity - Math.min((long) LONGS.getVolatile(buffer, CURSOR_OFFSET) & TAIL_MASK, capacity);
+    }
+
+    @Override
+    public void signalIdle(String instanceId, long ttlMillis) {
+    }
+
+    @Override
+    public boolean isPeerIdle(String instanceId) {
+        // the queue is local to each instance, there is nobody to share it with
+        return false;
+    }
+
+    @Override
+    public void scheduleRetry(RetryPayment retry, long dueAtMillis) {
+        retries.offer(new ScheduledRetry(retry, dueAtMillis));
+    }
+
+    @Override
+    public List<RetryPayment> claimDueRetries(long nowMillis, int count) {
+        List<RetryPayment> due = new ArrayList<>();
+        ScheduledRetry next;
+        while (due.size() < count && (next = retries.peek()) != null && next.dueAtMillis() <= nowMillis) {
+            due.add(retries.poll().retry());
+        }
+        return due;
+    }
+
+    @Override
+    public void savePayment(Payment request, ProcessorService service) {
+        long cursor = (long) LONGS.getAndAdd(buffer, CURSOR_OFFSET, 1L);
+        long epoch = cursor >>> EPOCH_SHIFT;
+        long slot = cursor & TAIL_MASK;
+        if (slot >= capacity) {
+            throw new IllegalStateException("Payment ledger is full");
+        }
+        int offset = HEADER_SIZE + (int) slot * RECORD_SIZE;
+        LONGS.set(buffer, offset + TIMESTAMP_FIELD, System.currentTimeMillis());
+        LONGS.set(buffer, offset + CENTS_FIELD, request.amountCents());
+        long commit = (epoch << 1) | (ProcessorService.DEFAULT.equals(service) ? 0 : 1);
+        LONGS.setRelease(buffer, offset + COMMIT_FIELD, commit);
+        LONGS.getAndAdd(buffer, VERSION_OFFSET, 1L);
+    }
+
+    @Override
+    public void awaitPendingSaves() {
+        // every save is written to the mapped file before savePayment returns
+    }
+
+    @Override
+    public PaymentSummary getPaymentsSummary(Instant from, Instant to) {
+        long fromMillis = from != null && to != null ? from.toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = from != null && to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+        // read before the cursor, so it is never past the start of the epoch read below
+        long start = (long) LONGS.getVolatile(buffer, EPOCH_START_OFFSET);
+        long cursor = (long) LONGS.getVolatile(buffer, CURSOR_OFFSET);
+        long epoch = cursor >>> EPOCH_SHIFT;
+        long tail = Math.min(cursor & TAIL_MASK, capacity);
+
+        long defaultCount = 0;
+        long defaultCents = 0;
+        long fallbackCount = 0;
+        long fallbackCents = 0;
+        for (int offset = HEADER_SIZE + (int) Math.min(start, tail) * RECORD_SIZE, end = HEADER_SIZE + (int) tail * RECORD_SIZE;
+             offset < end; offset += RECORD_SIZE) {
+            long commit = (long) LONGS.getAcquire(buffer, offset + COMMIT_FIELD);
+            if ((commit >>> 1) != epoch) {
+                continue;
+            }
+            long timestamp = (long) LONGS.get(buffer, offset + TIMESTAMP_FIELD);
+            if (timestamp < fromMillis || timestamp > toMillis) {
+                continue;
+            }
+            long cents = (long) LONGS.get(buffer, offset + CENTS_FIELD);
+            if ((commit & 1) == 0) {
+                defaultCount++;
+                defaultCents += cents;
+            } else {
+                fallbackCount++;
+                fallbackCents += cents;
+            }
+        }
+
+        return new PaymentSummary(
+                new PaymentSummary.ProcessorSummary(defaultCount, defaultCents),
+                new PaymentSummary.ProcessorSummary(fallbackCount, fallbackCents)
+        );
+    }
+
+    @Override
+    public PaymentSummary getLocalPaymentsSummary(Instant from, Instant to) {
+        return new PaymentSummary(
+                new PaymentSummary.ProcessorSummary(0, 0),
+                new PaymentSummary.ProcessorSummary(0, 0)
+        );
+    }
+
+    @Override
+    public SummaryVersion getSummaryVersion() {
+        long epoch = (long) LONGS.getVolatile(buffer, CURSOR_OFFSET) >>> EPOCH_SHIFT;
+        return new SummaryVersion(epoch, (long) LONGS.getVolatile(buffer, VERSION_OFFSET));
+    }
+
+    // savePayment writes the record as it stamps it, so no write is ever late
+    @Override
+    public long getLateWrites(long fromMillis, long toMillis) {
+        return 0;
+    }
+
+    // owner and expiry share one word, so taking, renewing and releasing the lease are each a single CAS
+    @Override
+    public boolean acquireHealthLeadership(String ownerId, long leaseMillis) {
+        long owner = leaseOwner(ownerId);
+        long now = System.currentTimeMillis();
+        long lease = (long) LONGS.getVolatile(buffer, HEALTH_LEASE_OFFSET);
+        if (lease >>> LEASE_OWNER_SHIFT != owner && (lease & LEASE_EXPIRY_MASK) >= now) {
+            return false;
+        }
+        return LONGS.compareAndSet(buffer, HEALTH_LEASE_OFFSET, lease,
+                owner << LEASE_OWNER_SHIFT | ((now + leaseMillis) & LEASE_EXPIRY_MASK));
+    }
+
+    @Override
+    public void releaseHealthLeadership(String ownerId) {
+        long lease = (long) LONGS.getVolatile(buffer, HEALTH_LEASE_OFFSET);
+        if (lease >>> LEASE_OWNER_SHIFT == leaseOwner(ownerId)) {
+            LONGS.compareAndSet(buffer, HEALTH_LEASE_OFFSET, lease, 0L);
+        }
+    }
+
+    // numbers handed out from a counter in the header, unique among the processes sharing the file; 0 is nobody
+    private long leaseOwner(String ownerId) {
+        return leaseOwners.computeIfAbsent(ownerId, id -> {
+            long owner;
+            do {
+                owner = ((long) LONGS.getAndAdd(buffer, LAST_OWNER_OFFSET, 1L) + 1) & LEASE_OWNER_MASK;
+            } while (owner == 0);
+            return owner;
+        });
+    }
+
+    @Override
+    public void publishProcessorHealth(ProcessorHealth health) {
+        long word = 1L << 63
+                | (health.preferred() == ProcessorService.FALLBACK ? 1L << 62 : 0)
+                | (health.defaultFailing() ? 1L << 61 : 0)
+                | (health.fallbackFailing() ? 1L << 60 : 0)
+                | (Math.min(health.defaultMinResponseTime(), RESPONSE_TIME_MASK) & RESPONSE_TIME_MASK) << 30
+                | (Math.min(health.fallbackMinResponseTime(), RESPONSE_TIME_MASK) & RESPONSE_TIME_MASK);
+        LONGS.setVolatile(buffer, PROCESSOR_HEALTH_OFFSET, word);
+    }
+
+    @Override
+    public ProcessorHealth getProcessorHealth() {
+        return decodeHealth((long) LONGS.getVolatile(buffer, PROCESSOR_HEALTH_OFFSET));
+    }
+
+    /**
+     * The instances share no connection to push through, so a virtual thread watches the state word
+     * every few milliseconds; reading it costs a load from the page cache.
+     */
+    @Override
+    public void subscribeProcessorHealth(Consumer<ProcessorHealth> listener) {
+        Thread.ofVirtual().name("processor-health-watcher").start(() -> {
+            long seen = 0;
+            while (!closed) {
+                long word = (long) LONGS.getVolatile(buffer, PROCESSOR_HEALTH_OFFSET);
+                if (word != seen) {
+                    seen = word;
+                    ProcessorHealth health = decodeHealth(word);
+                    if (health != null) {
+                        listener.accept(health);
+                    }
+                }
+                LockSupport.parkNanos(HEALTH_WATCH_NANOS);
+            }
+        });
+    }
+
+    private static ProcessorHealth decodeHealth(long word) {
+        if (word >= 0) {
+            return null;
+        }
+        return new ProcessorHealth((word & 1L << 62) != 0 ? ProcessorService.FALLBACK : ProcessorService.DEFAULT,
+                (word & 1L << 61) != 0, (int) (word >>> 30 & RESPONSE_TIME_MASK),
+                (word & 1L << 60) != 0, (int) (word & RESPONSE_TIME_MASK));
+    }
+
+    @Override
+    public void purgeAllData() {
+        queue.clear();
+        retries.clear();
+        long cursor = (long) LONGS.getAndAdd(buffer, CURSOR_OFFSET, 1L << EPOCH_SHIFT) + (1L << EPOCH_SHIFT);
+        long start = Math.min(cursor & TAIL_MASK, capacity);
+        long previous;
+        do {
+            previous = (long) LONGS.getVolatile(buffer, EPOCH_START_OFFSET);
+        } while (previous < start && !LONGS.compareAndSet(buffer, EPOCH_START_OFFSET, previous, start));
+    }
+
+    @Override
+    public void purgeLocalData() {
+        queue.clear();
+        retries.clear();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        buffer.force();
+    }
+}
@@ -0,0 +1,180 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.ProcessorHealth;
+import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.entity.RetryPayment;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary layout of the payments stored in the internal queue:
+ * {@code flags:1 | correlationId:16 (UUID msb, lsb) | cents:8}.
+ * Correlation ids that are not canonical lower/upper case UUIDs are kept verbatim,
+ * as {@code length:1 | ascii bytes}, so the id forwarded to the processors never changes.
+ * Payments waiting for a retry are prefixed with their attempt and the processor they are pinned to,
+ * {@code processor:2 attempt:6 | payment}, the processor being 0 when none is, 1 + ordinal otherwise.
+ * The shared processor state is plain text, {@code preferred,defaultFailing,defaultMin,fallbackFailing,fallbackMin}.
+ */
+class PaymentCodec {
+
+    // flag 1 marked an enqueue timestamp appended to the entry, which nothing read; it is no longer written
+    private static final int UPPERCASE_ID = 2;
+    private static final int RAW_ID = 4;
+    private static final int UUID_LENGTH = 36;
+    private static final int ATTEMPT_BITS = 6;
+    private static final int ATTEMPT_MASK = (1 << ATTEMPT_BITS) - 1;
+    private static final char[] LOWER_HEX = "0123456789abcdef".toCharArray();
+    private static final char[] UPPER_HEX = "0123456789ABCDEF".toCharArray();
+
+    static byte[] encode(Payment payment) {
+        String id = payment.correlationId();
+        long cents = payment.amountCents();
+        int caseFlag = uuidCase(id);
+        boolean raw = caseFlag < 0;
+        int flags = raw ? RAW_ID : caseFlag;
+
+        int idLength = raw ? 1 + id.length() : 16;
+        byte[] bytes = new byte[1 + idLength + 8];
+        bytes[0] = (byte) flags;
+        int position = 1;
+        if (raw) {
+            byte[] idBytes = id.getBytes(StandardCharsets.ISO_8859_1);
+            bytes[position++] = (byte) idBytes.length;
+            System.arraycopy(idBytes, 0, bytes, position, idBytes.length);
+            position += idBytes.length;
+        } else {
+            position = putLong(bytes, position, hexToLong(id, 0, 8, 9, 13, 14, 18));
+            position = putLong(bytes, position, hexToLong(id, 19, 23, 24, 36, 36, 36));
+        }
+        putLong(bytes, position, cents);
+        return bytes;
+    }
+
+    static Payment decode(byte[] bytes) {
+        return decode(bytes, 0);
+    }
+
+    static byte[] encodeRetry(RetryPayment retry) {
+        byte[] payment = encode(retry.payment());
+        byte[] bytes = new byte[1 + payment.length];
+        int processor = retry.processor() == null ? 0 : retry.processor().ordinal() + 1;
+        bytes[0] = (byte) (processor << ATTEMPT_BITS | retry.attempt());
+        System.arraycopy(payment, 0, bytes, 1, payment.length);
+        return bytes;
+    }
+
+    static RetryPayment decodeRetry(byte[] bytes) {
+        int processor = (bytes[0] & 0xFF) >>> ATTEMPT_BITS;
+        return new RetryPayment(decode(bytes, 1), bytes[0] & ATTEMPT_MASK,
+                processor == 0 ? null : ProcessorService.values()[processor - 1]);
+    }
+
+    static String encodeHealth(ProcessorHealth health) {
+        return health.preferred().name()
+                + ',' + (health.defaultFailing() ? 1 : 0) + ',' + health.defaultMinResponseTime()
+                + ',' + (health.fallbackFailing() ? 1 : 0) + ',' + health.fallbackMinResponseTime();
+    }
+
+    static ProcessorHealth decodeHealth(String value) {
+        String[] fields = value.split(",");
+        return new ProcessorHealth(ProcessorService.valueOf(fields[0]),
+                "1".equals(fields[1]), Integer.parseInt(fields[2]),
+                "1".equals(fields[3]), Integer.parseInt(fields[4]));
+    }
+
+    private static Payment decode(byte[] bytes, int offset) {
+        int flags = bytes[offset];
+        int position = offset + 1;
+        String id;
+        if ((flags & RAW_ID) != 0) {
+            int length = bytes[position++] & 0xFF;
+            id = new String(bytes, position, length, StandardCharsets.ISO_8859_1);
+            position += length;
+        } else {
+            char[] hex = (flags & UPPERCASE_ID) != 0 ? UPPER_HEX : LOWER_HEX;
+            id = uuidToString(getLong(bytes, position), getLong(bytes, position + 8), hex);
+            position += 16;
+        }
+        long cents = getLong(bytes, position);
+        return new Payment(id, cents);
+    }
+
+    // 0 for a lower case UUID, UPPERCASE_ID for an upper case one, -1 when the id must be stored verbatim
+    private static int uuidCase(String id) {
+        if (id.length() != UUID_LENGTH) {
+            return -1;
+        }
+        boolean lower = false;
+        boolean upper = false;
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return -1;
+                }
+            } else if (c >= 'a' && c <= 'f') {
+                lower = true;
+            } else if (c >= 'A' && c <= 'F') {
+                upper = true;
+            } else if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        if (lower && upper) {
+            return -1;
+        }
+        return upper ? UPPERCASE_ID : 0;
+    }
+
+    private static long hexToLong(String id, int from1, int to1, int from2, int to2, int from3, int to3) {
+        long value = 0;
+        value = accumulateHex(id, from1, to1, value);
+        value = accumulateHex(id, from2, to2, value);
+        return accumulateHex(id, from3, to3, value);
+    }
+
+    private static long accumulateHex(String id, int from, int to, long value) {
+        for (int i = from; i < to; i++) {
+            value = (value << 4) | Character.digit(id.charAt(i), 16);
+        }
+        return value;
+    }
+
+    private static String uuidToString(long msb, long lsb, char[] hex) {
+        byte[] chars = new byte[UUID_LENGTH];
+        writeHex(msb >>> 32, 8, chars, 0, hex);
+        chars[8] = '-';
+        writeHex(msb >>> 16, 4, chars, 9, hex);
+        chars[13] = '-';
+        writeHex(msb, 4, chars, 14, hex);
+        chars[18] = '-';
+        writeHex(lsb >>> 48, 4, chars, 19, hex);
+        chars[23] = '-';
+        writeHex(lsb, 12, chars, 24, hex);
+        return new String(chars, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void writeHex(long value, int digits, byte[] target, int offset, char[] hex) {
+        for (int i = digits - 1; i >= 0; i--) {
+            target[offset + i] = (byte) hex[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    private static int putLong(byte[] bytes, int position, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[position + i] = (byte) value;
+            value >>>= 8;
+        }
+        return position + 8;
+    }
+
+    private static long getLong(byte[] bytes, int position) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[position + i] & 0xFF);
+        }
+        return value;
+    }
+}
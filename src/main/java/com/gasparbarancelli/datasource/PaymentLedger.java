@@ -0,0 +1,137 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.ProcessorService;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ledger of the payments processed by this instance, aggregated into fixed one-millisecond time buckets,
+ * the resolution of the summary's {@code from} and {@code to}, so ranges stay exact. Only buckets that
+ * received a payment are kept, as primitive prefix-sum columns; timestamps are recorded in non-decreasing
+ * order, so a payment either lands in the last bucket or opens the next one, and a range is located with
+ * two binary searches and summed in O(log n) of the buckets, not of the payments.
+ */
+public class PaymentLedger {
+
+    private static final int INITIAL_CAPACITY = 16_384;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private long[] buckets;
+    // prefix sums over the buckets [0, i]
+    private long[] defaultCountPrefix;
+    private long[] defaultCentsPrefix;
+    private long[] fallbackCountPrefix;
+    private long[] fallbackCentsPrefix;
+    private int size;
+
+    public PaymentLedger() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public void record(long timestamp, long amountCents, ProcessorService service) {
+        lock.lock();
+        try {
+            int i = size - 1;
+            if (i < 0 || timestamp > buckets[i]) {
+                if (size == buckets.length) {
+                    grow();
+                }
+                i = size++;
+                buckets[i] = timestamp;
+                defaultCountPrefix[i] = i > 0 ? defaultCountPrefix[i - 1] : 0;
+                defaultCentsPrefix[i] = i > 0 ? defaultCentsPrefix[i - 1] : 0;
+                fallbackCountPrefix[i] = i > 0 ? fallbackCountPrefix[i - 1] : 0;
+                fallbackCentsPrefix[i] = i > 0 ? fallbackCentsPrefix[i - 1] : 0;
+            }
+            // a timestamp behind the last bucket, from a clock step back, is counted in the last bucket
+            if (service == ProcessorService.DEFAULT) {
+                defaultCountPrefix[i]++;
+                defaultCentsPrefix[i] += amountCents;
+            } else {
+                fallbackCountPrefix[i]++;
+                fallbackCentsPrefix[i] += amountCents;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns {@code [defaultCount, defaultCents, fallbackCount, fallbackCents]} for the payments
+     * recorded in {@code [fromMillis, toMillis]}, both inclusive.
+     */
+    public long[] summary(long fromMillis, long toMillis) {
+        lock.lock();
+        try {
+            int first = lowerBound(fromMillis);
+            int last = lowerBound(toMillis == Long.MAX_VALUE ? toMillis : toMillis + 1) - 1;
+            if (last < first) {
+                return new long[4];
+            }
+            return new long[]{
+                    rangeSum(defaultCountPrefix, first, last),
+                    rangeSum(defaultCentsPrefix, first, last),
+                    rangeSum(fallbackCountPrefix, first, last),
+                    rangeSum(fallbackCentsPrefix, first, last)
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every payment, giving back the columns grown past their initial capacity.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            size = 0;
+            if (buckets.length > INITIAL_CAPACITY) {
+                allocate(INITIAL_CAPACITY);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int capacity() {
+        return buckets.length;
+    }
+
+    private static long rangeSum(long[] prefix, int first, int last) {
+        return prefix[last] - (first > 0 ? prefix[first - 1] : 0);
+    }
+
+    // first bucket whose millisecond is >= millis
+    private int lowerBound(long millis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buckets[middle] < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void allocate(int capacity) {
+        buckets = new long[capacity];
+        defaultCountPrefix = new long[capacity];
+        defaultCentsPrefix = new long[capacity];
+        fallbackCountPrefix = new long[capacity];
+        fallbackCentsPrefix = new long[capacity];
+    }
+
+    private void grow() {
+        int capacity = buckets.length * 2;
+        buckets = Arrays.copyOf(buckets, capacity);
+        defaultCountPrefix = Arrays.copyOf(defaultCountPrefix, capacity);
+        defaultCentsPrefix = Arrays.copyOf(defaultCentsPrefix, capacity);
+        fallbackCountPrefix = Arrays.copyOf(fallbackCountPrefix, capacity);
+        fallbackCentsPrefix = Arrays.copyOf(fallbackCentsPrefix, capacity);
+    }
+}
@@ -0,0 +1,19 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.repository.PaymentRepository;
+
+import java.nio.file.Path;
+
+public class PaymentRepositoryFactory {
+
+    public static PaymentRepository create() {
+        String type = System.getenv().getOrDefault("PAYMENT_REPOSITORY", "valkey");
+        return switch (type.toLowerCase()) {
+            case "ledger" -> new LedgerPaymentRepository(new PaymentRepositoryInMemory(false), System.getenv("PEER_URL"));
+            case "mmap" -> new MappedPaymentRepository(
+                    Path.of(System.getenv().getOrDefault("LEDGER_FILE", "/ledger/payments.ledger")),
+                    Integer.parseInt(System.getenv().getOrDefault("LEDGER_CAPACITY", "2000000")));
+            default -> new PaymentRepositoryInMemory();
+        };
+    }
+}
@@ -1,34 +1,84 @@
 package com.gasparbarancelli.datasource;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.gasparbarancelli.entity.Payment;
 import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.entity.ProcessorHealth;
 import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.entity.RetryPayment;
+import com.gasparbarancelli.entity.SummaryVersion;
 import com.gasparbarancelli.repository.PaymentRepository;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
-import redis.clients.jedis.Pipeline;
-import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.JedisPubSub;
 
-import java.io.IOException;
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 public class PaymentRepositoryInMemory implements PaymentRepository {
 
-    private static final String PAYMENT_QUEUE_KEY = "payment_queue";
-    private static final String SUMMARY_KEY = "payment_summary";
-    private static final String PAYMENTS_BY_TIME_KEY = "payments_by_time";
-    private static final String HEALTH_LOCK_KEY = "health_check_lock";
-    private static final String HEALTHY_PROCESSOR_KEY = "healthy_processor";
+    /**
+     * Names of the payment keys of one data epoch, all under {@code payments:<epoch>:}. A purge moves every
+     * instance to the next epoch and the keys of the previous one are unlinked in the background, while the
+     * health check lease, the processor state and the epoch counter itself live outside and are never purged.
+     */
+    private record Keyspace(long epoch, byte[] queue, byte[] retryQueue, String summary, String paymentsByTime,
+                            String bucketPrefix, String bucketIndex, String version, String appliedBatches,
+                            String lateWrites) {
+
+        static String prefix(long epoch) {
+            return "payments:" + epoch + ":";
+        }
+
+        static Keyspace of(long epoch) {
+            String prefix = prefix(epoch);
+            return new Keyspace(epoch,
+                    (prefix + "payment_queue").getBytes(StandardCharsets.US_ASCII),
+                    (prefix + "payment_retry_queue").getBytes(StandardCharsets.US_ASCII),
+                    prefix + "payment_summary",
+                    prefix + "payments_by_time",
+                    prefix + "payments_bucket:",
+                    prefix + "payments_bucket_index",
+                    prefix + "payments_version",
+                    prefix + "payments_applied_batches",
+                    prefix + "payments_late_writes");
+        }
+    }
+
+    private static final String HEALTH_LEADER_KEY = "health_check_leader";
+    private static final String PROCESSOR_HEALTH_KEY = "processor_health";
+    private static final String PROCESSOR_HEALTH_CHANNEL = "processor_health";
+    private static final String EPOCH_KEY = "payments_epoch";
+    private static final String EPOCH_CHANNEL = "payments_epoch";
+    private static final String IDLE_INSTANCES_KEY = "payments_idle_instances";
+    private static final String FLUSH_CHANNEL = "payments_flush";
+    private static final String FLUSH_ACK_KEY_PREFIX = "payments_flush_ack:";
+    private static final long FLUSH_BARRIER_TIMEOUT_MS = 200;
+    private static final String PENDING_SAVES_KEY = "payments_pending_saves";
+    private static final long PENDING_FLAG_TTL_MS = 10_000;
+    // late writes are counted per minute of their timestamps, plus a total for ranges wider than MAX_LATE_BUCKETS
+    private static final long LATE_BUCKET_MILLIS = 60_000;
+    private static final int MAX_LATE_BUCKETS = 60;
+    private static final String LATE_WRITES_TOTAL = "all";
     private final JedisPool jedisPool;
-    private final ObjectMapper objectMapper;
+    private final RespClient valkey;
+    private final String valkeyHost;
+    private final int valkeyPort;
+    private final List<JedisPubSub> subscriptions = Collections.synchronizedList(new ArrayList<>());
+    private final SaveCoalescer saves;
+    private volatile Keyspace keyspace;
+    private volatile boolean closed;
     private static final String SUMMARY_LUA_SCRIPT =
             "local payments = redis.call('ZRANGEBYSCORE', KEYS[1], ARGV[1], ARGV[2])\n" +
                     "local default_cents = 0\n" +
@@ -48,137 +98,702 @@ public class PaymentRepositoryInMemory implements PaymentRepository {
                     "end\n" +
                     "return {tostring(default_count), tostring(default_cents), tostring(fallback_count), tostring(fallback_cents)}";
 
+    // Buckets are one hash per second holding the totals of the second (dn, dc, fn, fc), plus one hash per
+    // 100ms slice of it with a field per millisecond and processor (<ms>d, <ms>f) packing the count and the
+    // cents as count * 10^12 + cents, which Lua still reads exactly while a millisecond holds fewer than 9000
+    // payments of a processor. Whole seconds are read from the totals and only the slices covering the
+    // edges of the range are read per millisecond, so the result is exact at millisecond precision. At the
+    // rates of the test a slice stays under the 128 fields of Valkey's compact listpack encoding.
+    private static final long MILLIS_COUNT_UNIT = 1_000_000_000_000L;
+    private static final String BUCKET_SUMMARY_LUA_SCRIPT =
+            "local from = tonumber(ARGV[1])\n" +
+                    "local to = tonumber(ARGV[2])\n" +
+                    "local from_sec = math.floor(from / 1000)\n" +
+                    "local to_sec = math.floor(to / 1000)\n" +
+                    "local unit = tonumber(ARGV[4])\n" +
+                    "local totals = {0, 0, 0, 0}\n" +
+                    "local seconds = redis.call('ZRANGEBYSCORE', KEYS[1], from_sec, to_sec)\n" +
+                    "for _, sec_str in ipairs(seconds) do\n" +
+                    "    local sec = tonumber(sec_str)\n" +
+                    "    local key = ARGV[3] .. sec_str\n" +
+                    "    local low = 0\n" +
+                    "    local high = 999\n" +
+                    "    if sec == from_sec then low = from % 1000 end\n" +
+                    "    if sec == to_sec then high = to % 1000 end\n" +
+                    "    if low == 0 and high == 999 then\n" +
+                    "        local values = redis.call('HMGET', key, 'dn', 'dc', 'fn', 'fc')\n" +
+                    "        for i = 1, 4 do\n" +
+                    "            totals[i] = totals[i] + (tonumber(values[i]) or 0)\n" +
+                    "        end\n" +
+                    "    else\n" +
+                    "        for slice = math.floor(low / 100), math.floor(high / 100) do\n" +
+                    "            local fields = redis.call('HGETALL', key .. ':' .. slice)\n" +
+                    "            for i = 1, #fields, 2 do\n" +
+                    "                local field = fields[i]\n" +
+                    "                local ms = tonumber(string.sub(field, 1, -2))\n" +
+                    "                if ms >= low and ms <= high then\n" +
+                    "                    local packed = tonumber(fields[i + 1])\n" +
+                    "                    local count = math.floor(packed / unit)\n" +
+                    "                    local index = string.sub(field, -1) == 'd' and 1 or 3\n" +
+                    "                    totals[index] = totals[index] + count\n" +
+                    "                    totals[index + 1] = totals[index + 1] + packed - count * unit\n" +
+                    "                end\n" +
+                    "            end\n" +
+                    "        end\n" +
+                    "    end\n" +
+                    "end\n" +
+                    "return totals";
+
+    // pops up to ARGV[2] members whose due time is <= ARGV[1], so each retry is claimed by a single instance
+    private static final String CLAIM_RETRIES_LUA_SCRIPT =
+            "local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])\n" +
+                    "if #due > 0 then redis.call('ZREM', KEYS[1], unpack(due)) end\n" +
+                    "return due";
+
+    // takes the lease when it is free, or extends it when ARGV[1] already holds it
+    private static final String HEALTH_LEASE_LUA_SCRIPT =
+            "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 end\n" +
+                    "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+                    "  redis.call('PEXPIRE', KEYS[1], ARGV[2])\n" +
+                    "  return 1\n" +
+                    "end\n" +
+                    "return 0";
+
+    // runs the commands of a coalesced batch unless KEYS[1] shows that writer ARGV[1] already applied batch
+    // ARGV[2] or a later one; each command follows as its argument count and then its arguments
+    private static final String APPLY_BATCH_LUA_SCRIPT =
+            "local applied = tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or 0)\n" +
+                    "if applied >= tonumber(ARGV[2]) then return 0 end\n" +
+                    "redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])\n" +
+                    "local i = 3\n" +
+                    "while i <= #ARGV do\n" +
+                    "    local count = tonumber(ARGV[i])\n" +
+                    "    redis.call(unpack(ARGV, i + 1, i + count))\n" +
+                    "    i = i + count + 1\n" +
+                    "end\n" +
+                    "return 1";
+
+    private static final String HEALTH_RELEASE_LUA_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n" +
+                    "return 0";
+
     private final String LUA_SCRIPT_SHA;
+    private final String BUCKET_LUA_SCRIPT_SHA;
+    private final String CLAIM_RETRIES_LUA_SCRIPT_SHA;
+    private final String HEALTH_LEASE_LUA_SCRIPT_SHA;
+    private final String HEALTH_RELEASE_LUA_SCRIPT_SHA;
+    private final String APPLY_BATCH_LUA_SCRIPT_SHA;
+    private final String writerId = UUID.randomUUID().toString();
+    private final SummaryStrategy summaryStrategy;
 
 
     public PaymentRepositoryInMemory() {
+        this(true);
+    }
+
+    /**
+     * With {@code recordsPayments} false only the queue, the retries and the health state are used, as when
+     * another repository keeps the processed payments, so no save buffer nor flush subscription is set up.
+     */
+    public PaymentRepositoryInMemory(boolean recordsPayments) {
+        this(SummaryStrategy.valueOf(System.getenv().getOrDefault("SUMMARY_STRATEGY", "BUCKETS").toUpperCase()),
+                recordsPayments);
+    }
+
+    public PaymentRepositoryInMemory(SummaryStrategy summaryStrategy) {
+        this(summaryStrategy, true);
+    }
+
+    private PaymentRepositoryInMemory(SummaryStrategy summaryStrategy, boolean recordsPayments) {
+        this.summaryStrategy = summaryStrategy;
+
+        this.valkeyHost = System.getenv().getOrDefault("VALKEY_HOST", "localhost");
+        this.valkeyPort = Integer.parseInt(System.getenv().getOrDefault("VALKEY_PORT", "6379"));
+
+        // every command except the blocking pop is multiplexed over these few connections
+        int connections = Integer.parseInt(System.getenv().getOrDefault("VALKEY_CONNECTIONS", "2"));
+        this.valkey = new RespClient(valkeyHost, valkeyPort, connections, Duration.ofMillis(500), Duration.ofMillis(2000));
+
+        // the pool only serves BRPOP, which would hold up the multiplexed connections while it waits
         final JedisPoolConfig poolConfig = new JedisPoolConfig();
-        poolConfig.setMaxTotal(500);
-        poolConfig.setMaxIdle(500);
-        poolConfig.setMinIdle(100);
+        poolConfig.setMaxTotal(4);
+        poolConfig.setMaxIdle(4);
+        poolConfig.setMinIdle(1);
         poolConfig.setBlockWhenExhausted(true);
-
-        String valkeyHost = System.getenv().getOrDefault("VALKEY_HOST", "localhost");
-        int valkeyPort = Integer.parseInt(System.getenv().getOrDefault("VALKEY_PORT", "6379"));
         this.jedisPool = new JedisPool(poolConfig, valkeyHost, valkeyPort, 2000);
 
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
+        this.LUA_SCRIPT_SHA = scriptLoad(SUMMARY_LUA_SCRIPT);
+        this.BUCKET_LUA_SCRIPT_SHA = scriptLoad(BUCKET_SUMMARY_LUA_SCRIPT);
+        this.CLAIM_RETRIES_LUA_SCRIPT_SHA = scriptLoad(CLAIM_RETRIES_LUA_SCRIPT);
+        this.HEALTH_LEASE_LUA_SCRIPT_SHA = scriptLoad(HEALTH_LEASE_LUA_SCRIPT);
+        this.HEALTH_RELEASE_LUA_SCRIPT_SHA = scriptLoad(HEALTH_RELEASE_LUA_SCRIPT);
+        this.APPLY_BATCH_LUA_SCRIPT_SHA = scriptLoad(APPLY_BATCH_LUA_SCRIPT);
+        this.keyspace = Keyspace.of(number(valkey.call("GET", EPOCH_KEY)));
 
-        try (Jedis jedis = jedisPool.getResource()) {
-            this.LUA_SCRIPT_SHA = jedis.scriptLoad(SUMMARY_LUA_SCRIPT);
+        // a window of 0 writes every payment as it is saved
+        long saveWindowMs = Long.parseLong(System.getenv().getOrDefault("SAVE_FLUSH_WINDOW_MS", "5"));
+        int saveBatchSize = Integer.parseInt(System.getenv().getOrDefault("SAVE_BATCH_SIZE", "256"));
+        if (recordsPayments && saveWindowMs > 0) {
+            this.saves = new SaveCoalescer(this::writeBatch, this::flagPendingSaves, saveBatchSize, saveWindowMs);
+            subscribe(FLUSH_CHANNEL, new JedisPubSub() {
+                @Override
+                public void onMessage(String channel, String barrier) {
+                    acknowledgeFlush(barrier);
+                }
+            });
+        } else {
+            this.saves = null;
         }
+
+        // a purge on another instance moves this one to the new epoch; the stored epoch is reread after every
+        // (re)subscription, covering a purge published while the connection was down
+        subscribe(EPOCH_CHANNEL, new JedisPubSub() {
+            @Override
+            public void onSubscribe(String channel, int subscribedChannels) {
+                try {
+                    switchEpoch(number(valkey.call("GET", EPOCH_KEY)));
+                } catch (Exception ignore) {
+                }
+            }
+
+            @Override
+            public void onMessage(String channel, String epoch) {
+                try {
+                    switchEpoch(Long.parseLong(epoch));
+                } catch (Exception ignore) {
+                }
+            }
+        });
+    }
+
+    private String scriptLoad(String script) {
+        return text(valkey.call("SCRIPT", "LOAD", script));
+    }
+
+    private static String text(Object reply) {
+        return reply instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : (String) reply;
+    }
+
+    private static long number(Object reply) {
+        return switch (reply) {
+            case null -> 0;
+            case Long value -> value;
+            default -> Long.parseLong(text(reply));
+        };
     }
 
     @Override
     public void enqueuePayment(Payment request) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String serializedPayment = objectMapper.writeValueAsString(request);
-            jedis.lpush(PAYMENT_QUEUE_KEY, serializedPayment);
-        } catch (JsonProcessingException ignore) {
+        valkey.call("LPUSH", keyspace.queue(), PaymentCodec.encode(request));
+    }
+
+    @Override
+    public void enqueuePayments(List<Payment> requests) {
+        if (requests.isEmpty()) {
+            return;
         }
+        Object[] command = new Object[requests.size() + 2];
+        command[0] = "LPUSH";
+        command[1] = keyspace.queue();
+        for (int i = 0; i < requests.size(); i++) {
+            command[i + 2] = PaymentCodec.encode(requests.get(i));
+        }
+        valkey.call(command);
     }
 
     @Override
     public Payment dequeuePayment(int workerId) {
         try (Jedis jedis = jedisPool.getResource()) {
-            List<String> result = jedis.brpop(1, PAYMENT_QUEUE_KEY);
+            List<byte[]> result = jedis.brpop(1, keyspace.queue());
             if (result != null && !result.isEmpty()) {
-                String serializedPayment = result.get(1);
-                return objectMapper.readValue(serializedPayment, Payment.class);
+                return PaymentCodec.decode(result.get(1));
             }
             return null;
-        } catch (IOException e) {
-            return null;
         }
     }
 
+    @Override
+    public List<Payment> dequeuePayments(int count) {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) valkey.call("RPOP", keyspace.queue(), count);
+        if (result == null || result.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Payment> payments = new ArrayList<>(result.size());
+        for (Object encodedPayment : result) {
+            payments.add(PaymentCodec.decode((byte[]) encodedPayment));
+        }
+        return payments;
+    }
+
+    @Override
+    public long queueLength() {
+        return number(valkey.call("LLEN", keyspace.queue()));
+    }
+
+    @Override
+    public long remainingCapacity() {
+        return Long.MAX_VALUE;
+    }
+
+    // each instance is a member of a sorted set scored by the time its signal expires
+    @Override
+    public void signalIdle(String instanceId, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        valkey.pipeline(List.of(
+                new Object[]{"ZADD", IDLE_INSTANCES_KEY, now + ttlMillis, instanceId},
+                new Object[]{"ZREMRANGEBYSCORE", IDLE_INSTANCES_KEY, "-inf", now - 60_000}));
+    }
+
+    @Override
+    public boolean isPeerIdle(String instanceId) {
+        @SuppressWarnings("unchecked")
+        List<Object> idle = (List<Object>) valkey.call("ZRANGE", IDLE_INSTANCES_KEY,
+                "(" + System.currentTimeMillis(), "+inf", "BYSCORE", "LIMIT", 0, 2);
+        for (Object member : idle) {
+            if (!instanceId.equals(text(member))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void scheduleRetry(RetryPayment retry, long dueAtMillis) {
+        valkey.call("ZADD", keyspace.retryQueue(), dueAtMillis, PaymentCodec.encodeRetry(retry));
+    }
+
+    @Override
+    public List<RetryPayment> claimDueRetries(long nowMillis, int count) {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) valkey.call("EVALSHA", CLAIM_RETRIES_LUA_SCRIPT_SHA, 1,
+                keyspace.retryQueue(), nowMillis, count);
+        if (result == null || result.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<RetryPayment> retries = new ArrayList<>(result.size());
+        for (Object encodedRetry : result) {
+            retries.add(PaymentCodec.decodeRetry((byte[]) encodedRetry));
+        }
+        return retries;
+    }
+
     @Override
     public void savePayment(Payment request, ProcessorService service) {
-        boolean isDefault = ProcessorService.DEFAULT.equals(service);
         long timestamp = System.currentTimeMillis();
-        long amountCents = request.amount().movePointRight(2).longValue();
-        String paymentDetails = String.join(":", request.correlationId(), String.valueOf(amountCents), String.valueOf(isDefault));
+        if (saves != null) {
+            saves.add(request, service, timestamp);
+        } else {
+            List<Object[]> p = new ArrayList<>();
+            p.add(new Object[]{"MULTI"});
+            p.addAll(saveCommands(keyspace, List.of(new SaveCoalescer.PendingSave(request, service, timestamp))));
+            p.add(new Object[]{"EXEC"});
+            valkey.pipeline(p);
+        }
+    }
 
-        try (Jedis jedis = jedisPool.getResource()) {
-            Pipeline p = jedis.pipelined();
+    /**
+     * Writes a coalesced batch atomically through a script that skips it when the batch was applied already.
+     * A write that timed out here may still have been applied, and the coalescer then writes the same batch
+     * again under the same sequence; batches of this writer are applied in sequence order, so the highest one
+     * applied is all the script has to keep.
+     */
+    private void writeBatch(long sequence, List<SaveCoalescer.PendingSave> batch) {
+        Keyspace keys = keyspace;
+        List<Object[]> commands = saveCommands(keys, batch);
+        int length = 6;
+        for (Object[] command : commands) {
+            length += 1 + command.length;
+        }
+        Object[] call = new Object[length];
+        call[0] = "EVALSHA";
+        call[1] = APPLY_BATCH_LUA_SCRIPT_SHA;
+        call[2] = 1;
+        call[3] = keys.appliedBatches();
+        call[4] = writerId;
+        call[5] = sequence;
+        int i = 6;
+        for (Object[] command : commands) {
+            call[i++] = command.length;
+            System.arraycopy(command, 0, call, i, command.length);
+            i += command.length;
+        }
+        valkey.call(call);
+    }
 
-            p.zadd(PAYMENTS_BY_TIME_KEY, timestamp, paymentDetails);
+    /**
+     * The commands recording a window of saves: one multi-member ZADD, each bucket field and summary counter
+     * incremented once with the window's total, the late writes counted per minute, and one version bump.
+     */
+    private List<Object[]> saveCommands(Keyspace keys, List<SaveCoalescer.PendingSave> pending) {
+        long[] totals = new long[4];
+        List<Object[]> p = new ArrayList<>();
+        long lateBefore = System.currentTimeMillis() - LATE_WRITE_MILLIS;
+        Map<Long, Long> lateBuckets = new HashMap<>();
+        for (SaveCoalescer.PendingSave save : pending) {
+            if (save.timestamp() < lateBefore) {
+                lateBuckets.merge(save.timestamp() / LATE_BUCKET_MILLIS, 1L, Long::sum);
+            }
+        }
+        if (!lateBuckets.isEmpty()) {
+            long late = 0;
+            for (Map.Entry<Long, Long> bucket : lateBuckets.entrySet()) {
+                p.add(new Object[]{"HINCRBY", keys.lateWrites(), bucket.getKey(), bucket.getValue()});
+                late += bucket.getValue();
+            }
+            p.add(new Object[]{"HINCRBY", keys.lateWrites(), LATE_WRITES_TOTAL, late});
+        }
 
-            if (isDefault) {
-                p.hincrBy(SUMMARY_KEY, "default_count", 1L);
-                p.hincrBy(SUMMARY_KEY, "default_total_cents", amountCents);
-            } else {
-                p.hincrBy(SUMMARY_KEY, "fallback_count", 1L);
-                p.hincrBy(SUMMARY_KEY, "fallback_total_cents", amountCents);
+        if (summaryStrategy == SummaryStrategy.ZSET) {
+            Object[] zadd = new Object[2 + 2 * pending.size()];
+            zadd[0] = "ZADD";
+            zadd[1] = keys.paymentsByTime();
+            int i = 2;
+            for (SaveCoalescer.PendingSave save : pending) {
+                boolean isDefault = save.service() == ProcessorService.DEFAULT;
+                long amountCents = save.payment().amountCents();
+                zadd[i++] = save.timestamp();
+                zadd[i++] = save.payment().correlationId() + ':' + amountCents + ':' + isDefault;
+                total(totals, isDefault, amountCents);
             }
-            p.sync();
+            p.add(zadd);
+        } else {
+            Map<Long, Map<String, Long>> buckets = new TreeMap<>();
+            Map<String, Map<String, Long>> slices = new HashMap<>();
+            for (SaveCoalescer.PendingSave save : pending) {
+                boolean isDefault = save.service() == ProcessorService.DEFAULT;
+                long amountCents = save.payment().amountCents();
+                long second = save.timestamp() / 1000;
+                long millisecond = save.timestamp() % 1000;
+                Map<String, Long> fields = buckets.computeIfAbsent(second, key -> new HashMap<>());
+                fields.merge(isDefault ? "dn" : "fn", 1L, Long::sum);
+                fields.merge(isDefault ? "dc" : "fc", amountCents, Long::sum);
+                slices.computeIfAbsent(keys.bucketPrefix() + second + ':' + millisecond / 100, key -> new HashMap<>())
+                        .merge(millisecond + (isDefault ? "d" : "f"), MILLIS_COUNT_UNIT + amountCents, Long::sum);
+                total(totals, isDefault, amountCents);
+            }
+            Object[] zadd = new Object[2 + 2 * buckets.size()];
+            zadd[0] = "ZADD";
+            zadd[1] = keys.bucketIndex();
+            int i = 2;
+            for (Long second : buckets.keySet()) {
+                zadd[i++] = second;
+                zadd[i++] = second;
+            }
+            p.add(zadd);
+            buckets.forEach((second, fields) -> {
+                String bucketKey = keys.bucketPrefix() + second;
+                fields.forEach((field, increment) -> p.add(new Object[]{"HINCRBY", bucketKey, field, increment}));
+            });
+            slices.forEach((sliceKey, fields) ->
+                    fields.forEach((field, increment) -> p.add(new Object[]{"HINCRBY", sliceKey, field, increment})));
+        }
+
+        if (totals[0] > 0) {
+            p.add(new Object[]{"HINCRBY", keys.summary(), "default_count", totals[0]});
+            p.add(new Object[]{"HINCRBY", keys.summary(), "default_total_cents", totals[1]});
+        }
+        if (totals[2] > 0) {
+            p.add(new Object[]{"HINCRBY", keys.summary(), "fallback_count", totals[2]});
+            p.add(new Object[]{"HINCRBY", keys.summary(), "fallback_total_cents", totals[3]});
         }
+        // bumped after the writes above, so a summary cached under the previous version is never reused
+        p.add(new Object[]{"INCR", keys.version()});
+        return p;
     }
 
-    @Override
-    public PaymentSummary getPaymentsSummary(Instant from, Instant to) {
-        if (from == null && to == null) {
-            try (Jedis jedis = jedisPool.getResource()) {
-                Map<String, String> summaryData = jedis.hgetAll(SUMMARY_KEY);
-                long defaultCount = Long.parseLong(summaryData.getOrDefault("default_count", "0"));
-                long defaultTotalCents = Long.parseLong(summaryData.getOrDefault("default_total_cents", "0"));
-                long fallbackCount = Long.parseLong(summaryData.getOrDefault("fallback_count", "0"));
-                long fallbackTotalCents = Long.parseLong(summaryData.getOrDefault("fallback_total_cents", "0"));
+    private static void total(long[] totals, boolean isDefault, long amountCents) {
+        int offset = isDefault ? 0 : 2;
+        totals[offset]++;
+        totals[offset + 1] += amountCents;
+    }
 
-                return new PaymentSummary(
-                        new PaymentSummary.ProcessorSummary(defaultCount, BigDecimal.valueOf(defaultTotalCents, 2)),
-                        new PaymentSummary.ProcessorSummary(fallbackCount, BigDecimal.valueOf(fallbackTotalCents, 2))
-                );
+    /**
+     * Marks this instance as holding buffered saves, as a field of a shared hash whose value is the time after
+     * which the mark is ignored, so the mark of an instance that died while holding saves does not outlive it.
+     */
+    private void flagPendingSaves(boolean pending) {
+        if (pending) {
+            valkey.call("HSET", PENDING_SAVES_KEY, writerId, System.currentTimeMillis() + PENDING_FLAG_TTL_MS);
+        } else {
+            valkey.call("HDEL", PENDING_SAVES_KEY, writerId);
+        }
+    }
+
+    private boolean peersHavePendingSaves() {
+        @SuppressWarnings("unchecked")
+        List<Object> marks = (List<Object>) valkey.call("HVALS", PENDING_SAVES_KEY);
+        long now = System.currentTimeMillis();
+        for (Object mark : marks) {
+            if (number(mark) > now) {
+                return true;
             }
         }
+        return false;
+    }
 
+    /**
+     * Flushes this instance's buffer, then, unless no instance has saves buffered, asks every subscribed instance
+     * to flush its own and waits for their acknowledgements on a list named after the barrier, up to
+     * {@code FLUSH_BARRIER_TIMEOUT_MS}.
+     */
+    @Override
+    public void awaitPendingSaves() {
+        if (saves == null) {
+            return;
+        }
+        saves.flush();
+        if (!peersHavePendingSaves()) {
+            return;
+        }
+        String barrier = UUID.randomUUID().toString();
+        String ackKey = FLUSH_ACK_KEY_PREFIX + barrier;
+        long instances = number(valkey.call("PUBLISH", FLUSH_CHANNEL, barrier));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_BARRIER_TIMEOUT_MS);
         try (Jedis jedis = jedisPool.getResource()) {
-            long fromMillis = from.toEpochMilli();
-            long toMillis = to.toEpochMilli();
+            for (long acknowledged = 0; acknowledged < instances; acknowledged++) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || jedis.blpop(remaining / 1e9, ackKey) == null) {
+                    break;
+                }
+            }
+            jedis.del(ackKey);
+        }
+    }
 
-            List<String> keys = Collections.singletonList(PAYMENTS_BY_TIME_KEY);
-            List<String> args = List.of(String.valueOf(fromMillis), String.valueOf(toMillis));
+    private void acknowledgeFlush(String barrier) {
+        try {
+            saves.flush();
+            String ackKey = FLUSH_ACK_KEY_PREFIX + barrier;
+            valkey.pipeline(List.of(
+                    new Object[]{"RPUSH", ackKey, 1},
+                    new Object[]{"PEXPIRE", ackKey, FLUSH_BARRIER_TIMEOUT_MS}));
+        } catch (Exception ignore) {
+        }
+    }
 
+    @Override
+    public PaymentSummary getPaymentsSummary(Instant from, Instant to) {
+        if (from == null && to == null) {
             @SuppressWarnings("unchecked")
-            List<String> result = (List<String>) jedis.evalsha(LUA_SCRIPT_SHA, keys, args);
-
-            long defaultCount = Long.parseLong(result.get(0));
-            long defaultCents = Long.parseLong(result.get(1));
-            long fallbackCount = Long.parseLong(result.get(2));
-            long fallbackCents = Long.parseLong(result.get(3));
+            List<Object> totals = (List<Object>) valkey.call("HMGET", keyspace.summary(),
+                    "default_count", "default_total_cents", "fallback_count", "fallback_total_cents");
+            long defaultCount = number(totals.get(0));
+            long defaultTotalCents = number(totals.get(1));
+            long fallbackCount = number(totals.get(2));
+            long fallbackTotalCents = number(totals.get(3));
 
             return new PaymentSummary(
-                    new PaymentSummary.ProcessorSummary(defaultCount, BigDecimal.valueOf(defaultCents, 2)),
-                    new PaymentSummary.ProcessorSummary(fallbackCount, BigDecimal.valueOf(fallbackCents, 2))
+                    new PaymentSummary.ProcessorSummary(defaultCount, defaultTotalCents),
+                    new PaymentSummary.ProcessorSummary(fallbackCount, fallbackTotalCents)
             );
         }
+
+        if (summaryStrategy == SummaryStrategy.BUCKETS) {
+            return getBucketedPaymentsSummary(from.toEpochMilli(), to.toEpochMilli());
+        }
+
+        long fromMillis = from.toEpochMilli();
+        long toMillis = to.toEpochMilli();
+
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) valkey.call("EVALSHA", LUA_SCRIPT_SHA, 1,
+                keyspace.paymentsByTime(), fromMillis, toMillis);
+
+        long defaultCount = number(result.get(0));
+        long defaultCents = number(result.get(1));
+        long fallbackCount = number(result.get(2));
+        long fallbackCents = number(result.get(3));
+
+        return new PaymentSummary(
+                new PaymentSummary.ProcessorSummary(defaultCount, defaultCents),
+                new PaymentSummary.ProcessorSummary(fallbackCount, fallbackCents)
+        );
     }
 
     @Override
-    public boolean acquireHealthCheckLock() {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String result = jedis.set(HEALTH_LOCK_KEY, "locked", SetParams.setParams().nx().ex(10));
-            return "OK".equals(result);
-        }
+    public PaymentSummary getLocalPaymentsSummary(Instant from, Instant to) {
+        return new PaymentSummary(
+                new PaymentSummary.ProcessorSummary(0, 0),
+                new PaymentSummary.ProcessorSummary(0, 0)
+        );
     }
 
-    @Override public void releaseHealthCheckLock() {
-        try (Jedis jedis = jedisPool.getResource()) { jedis.del(HEALTH_LOCK_KEY); }
+    @Override
+    public long getLateWrites(long fromMillis, long toMillis) {
+        Keyspace keys = keyspace;
+        long first = Math.floorDiv(fromMillis, LATE_BUCKET_MILLIS);
+        long last = Math.floorDiv(toMillis, LATE_BUCKET_MILLIS);
+        if (last - first >= MAX_LATE_BUCKETS) {
+            return number(valkey.call("HGET", keys.lateWrites(), LATE_WRITES_TOTAL));
+        }
+        Object[] command = new Object[(int) (last - first) + 3];
+        command[0] = "HMGET";
+        command[1] = keys.lateWrites();
+        for (long bucket = first; bucket <= last; bucket++) {
+            command[(int) (bucket - first) + 2] = bucket;
+        }
+        @SuppressWarnings("unchecked")
+        List<Object> counts = (List<Object>) valkey.call(command);
+        long late = 0;
+        for (Object count : counts) {
+            late += number(count);
+        }
+        return late;
     }
-    @Override public ProcessorService getHealthyProcessor() {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String service = jedis.get(HEALTHY_PROCESSOR_KEY);
-            return "FALLBACK".equals(service) ? ProcessorService.FALLBACK : ProcessorService.DEFAULT;
+
+    @Override
+    public SummaryVersion getSummaryVersion() {
+        // the stored epoch is read along, so a purge not yet announced to this instance is not missed
+        Keyspace keys = keyspace;
+        @SuppressWarnings("unchecked")
+        List<Object> values = (List<Object>) valkey.call("MGET", EPOCH_KEY, keys.version());
+        long epoch = number(values.get(0));
+        if (epoch > keys.epoch()) {
+            switchEpoch(epoch);
+            return new SummaryVersion(epoch, 0);
         }
+        return new SummaryVersion(keys.epoch(), number(values.get(1)));
     }
-    @Override public void storeHealthyProcessor(ProcessorService service) {
-        try (Jedis jedis = jedisPool.getResource()) { jedis.set(HEALTHY_PROCESSOR_KEY, service.name()); }
+
+    private PaymentSummary getBucketedPaymentsSummary(long fromMillis, long toMillis) {
+        Keyspace keys = keyspace;
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) valkey.call("EVALSHA", BUCKET_LUA_SCRIPT_SHA, 1,
+                keys.bucketIndex(), fromMillis, toMillis, keys.bucketPrefix(), MILLIS_COUNT_UNIT);
+
+        return new PaymentSummary(
+                new PaymentSummary.ProcessorSummary(number(result.get(0)), number(result.get(1))),
+                new PaymentSummary.ProcessorSummary(number(result.get(2)), number(result.get(3)))
+        );
     }
+
+    @Override
+    public boolean acquireHealthLeadership(String ownerId, long leaseMillis) {
+        Object result = valkey.call("EVALSHA", HEALTH_LEASE_LUA_SCRIPT_SHA, 1, HEALTH_LEADER_KEY, ownerId, leaseMillis);
+        return Long.valueOf(1).equals(result);
+    }
+
+    @Override public void releaseHealthLeadership(String ownerId) {
+        valkey.call("EVALSHA", HEALTH_RELEASE_LUA_SCRIPT_SHA, 1, HEALTH_LEADER_KEY, ownerId);
+    }
+    @Override public void publishProcessorHealth(ProcessorHealth health) {
+        String value = PaymentCodec.encodeHealth(health);
+        valkey.pipeline(List.of(
+                new Object[]{"SET", PROCESSOR_HEALTH_KEY, value},
+                new Object[]{"PUBLISH", PROCESSOR_HEALTH_CHANNEL, value}));
+    }
+    @Override public ProcessorHealth getProcessorHealth() {
+        Object value = valkey.call("GET", PROCESSOR_HEALTH_KEY);
+        return value == null ? null : PaymentCodec.decodeHealth(text(value));
+    }
+
+    /**
+     * Listens on a connection of its own, outside the pool, since a subscribed connection takes no other
+     * commands. After every (re)subscription the stored state is replayed, covering what was published
+     * while the connection was down.
+     */
+    @Override public void subscribeProcessorHealth(Consumer<ProcessorHealth> listener) {
+        JedisPubSub subscription = new JedisPubSub() {
+            @Override
+            public void onSubscribe(String channel, int subscribedChannels) {
+                try {
+                    ProcessorHealth current = getProcessorHealth();
+                    if (current != null) {
+                        listener.accept(current);
+                    }
+                } catch (Exception ignore) {
+                }
+            }
+
+            @Override
+            public void onMessage(String channel, String message) {
+                try {
+                    listener.accept(PaymentCodec.decodeHealth(message));
+                } catch (Exception ignore) {
+                }
+            }
+        };
+        subscribe(PROCESSOR_HEALTH_CHANNEL, subscription);
+    }
+
+    private void subscribe(String channel, JedisPubSub subscription) {
+        subscriptions.add(subscription);
+        Thread.ofVirtual().name(channel + "-subscriber").start(() -> {
+            while (!closed) {
+                try (Jedis jedis = new Jedis(valkeyHost, valkeyPort)) {
+                    jedis.subscribe(subscription, channel);
+                } catch (Exception e) {
+                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves every instance to a new, empty keyspace with a single INCR, leaving the health check state alone.
+     * The keys of the previous epoch are no longer read or written and are unlinked in the background.
+     */
     @Override public void purgeAllData() {
-        try (Jedis jedis = jedisPool.getResource()) { jedis.flushDB(); }
+        long previous = keyspace.epoch();
+        long epoch = number(valkey.call("INCR", EPOCH_KEY));
+        switchEpoch(epoch);
+        valkey.call("PUBLISH", EPOCH_CHANNEL, epoch);
+        Thread.ofVirtual().name("keyspace-cleaner").start(() -> unlinkEpochs(previous, epoch));
+    }
+
+    private synchronized void switchEpoch(long epoch) {
+        if (epoch <= keyspace.epoch()) {
+            return;
+        }
+        // saves still buffered belong to the purged data; the keyspace is swapped before the coalescer can
+        // flush again, so saves added from now on never land in the purged epoch
+        if (saves != null) {
+            saves.clear(() -> keyspace = Keyspace.of(epoch));
+        } else {
+            keyspace = Keyspace.of(epoch);
+        }
+    }
+
+    // every epoch in between, since one skipped by a concurrent purge is otherwise never unlinked
+    private void unlinkEpochs(long from, long to) {
+        for (long epoch = from; epoch < to; epoch++) {
+            try {
+                String pattern = Keyspace.prefix(epoch) + "*";
+                String cursor = "0";
+                do {
+                    List<?> page = (List<?>) valkey.call("SCAN", cursor, "MATCH", pattern, "COUNT", 1000);
+                    cursor = text(page.get(0));
+                    List<?> keys = (List<?>) page.get(1);
+                    if (!keys.isEmpty()) {
+                        Object[] command = new Object[keys.size() + 1];
+                        command[0] = "UNLINK";
+                        for (int i = 0; i < keys.size(); i++) {
+                            command[i + 1] = keys.get(i);
+                        }
+                        valkey.call(command);
+                    }
+                } while (!"0".equals(cursor) && !closed);
+            } catch (Exception ignore) {
+                // left behind, the keys of an old epoch are never read again
+            }
+        }
+    }
+    @Override public void purgeLocalData() {
     }
     @Override public void close() {
+        closed = true;
+        if (saves != null) {
+            saves.close();
+        }
+        synchronized (subscriptions) {
+            for (JedisPubSub subscription : subscriptions) {
+                if (subscription.isSubscribed()) {
+                    subscription.unsubscribe();
+                }
+            }
+        }
+        valkey.close();
         if (jedisPool != null && !jedisPool.isClosed()) { jedisPool.close(); }
     }
 }
\ No newline at end of file
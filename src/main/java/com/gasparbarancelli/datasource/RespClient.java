@@ -0,0 +1,505 @@
+package com.gasparbarancelli.datasource;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RESP client that multiplexes every non-blocking command of the process over a few connections. Commands are
+ * queued per connection and whichever caller finds the connection free writes everything queued so far in
+ * one go, so concurrent commands are pipelined without the callers coordinating. A single reader per
+ * connection parses the replies in order and completes the callers' futures.
+ * <p>
+ * Replies map to {@code String} (simple strings), {@code Long} (integers), {@code byte[]} (bulk strings),
+ * {@code List<Object>} (arrays, sets, maps flattened as key/value pairs), {@code Boolean}, {@code Double} or
+ * {@code null}; error replies complete the future with {@link RespException}. Blocking commands and pub/sub
+ * would stall every command behind them and must not be sent through here.
+ * <p>
+ * When the connection drops, the commands waiting for a reply fail right away and the next command reconnects.
+ * A failed reconnect fails everything queued, and commands sent during the following {@code RECONNECT_BACKOFF}
+ * fail at once instead of each waiting for a connect that is unlikely to work.
+ */
+final class RespClient implements Closeable {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long RECONNECT_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    static final class RespException extends RuntimeException {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        RespException(String message) {
+            super(message);
+        }
+    }
+
+    private record Command(byte[] bytes, int length, int replies, CompletableFuture<Object> future, List<Object> collected) {
+    }
+
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMillis;
+    private final long timeoutNanos;
+    private final Connection[] connections;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed;
+
+    RespClient(String host, int port, int connections, Duration connectTimeout, Duration timeout) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMillis = (int) connectTimeout.toMillis();
+        this.timeoutNanos = timeout.toNanos();
+        this.connections = new Connection[Math.max(1, connections)];
+        for (int i = 0; i < this.connections.length; i++) {
+            this.connections[i] = new Connection();
+        }
+    }
+
+    /**
+     * Sends one command and waits for its reply. Arguments may be {@code byte[]}, {@code String} or numbers.
+     */
+    Object call(Object... args) {
+        return await(send(args));
+    }
+
+    CompletableFuture<Object> send(Object... args) {
+        Encoder encoder = new Encoder();
+        encoder.command(args);
+        return submit(encoder, 1, false);
+    }
+
+    /**
+     * Sends the commands back to back on the same connection and returns their replies in order. An error
+     * reply fails the whole call, but the commands after it still run, as in any pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    List<Object> pipeline(List<Object[]> commands) {
+        if (commands.isEmpty()) {
+            return List.of();
+        }
+        Encoder encoder = new Encoder();
+        for (Object[] command : commands) {
+            encoder.command(command);
+        }
+        return (List<Object>) await(submit(encoder, commands.size(), true));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Connection connection : connections) {
+            connection.fail(new IOException("Valkey client closed"));
+        }
+    }
+
+    // A pipeline always collects its replies into a list, even when it holds a single command.
+    private CompletableFuture<Object> submit(Encoder encoder, int replies, boolean collect) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        Command command = new Command(encoder.bytes, encoder.length, replies, future, collect ? new ArrayList<>(replies) : null);
+        connections[Math.floorMod(next.getAndIncrement(), connections.length)].submit(command);
+        return future;
+    }
+
+    private Object await(CompletableFuture<Object> future) {
+        try {
+            return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new UncheckedIOException(new IOException(e.getCause()));
+        } catch (TimeoutException e) {
+            throw new UncheckedIOException(new IOException("Valkey command timed out", e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted waiting for Valkey", e));
+        }
+    }
+
+    /**
+     * One socket's lifetime, with the commands written to it and still waiting for their replies.
+     */
+    private record Link(SocketChannel channel, ConcurrentLinkedQueue<Command> awaiting) {
+    }
+
+    private final class Connection {
+
+        private final ConcurrentLinkedQueue<Command> outbound = new ConcurrentLinkedQueue<>();
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private volatile Link link;
+        private volatile long reconnectAt = System.nanoTime();
+
+        private void submit(Command command) {
+            outbound.offer(command);
+            // a command queued while the holder was finishing would be left behind, hence the re-check after unlock
+            while (!outbound.isEmpty() && writeLock.tryLock()) {
+                try {
+                    flush();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+
+        private void flush() {
+            Link current;
+            try {
+                current = open();
+            } catch (IOException e) {
+                Command command;
+                while ((command = outbound.poll()) != null) {
+                    command.future().completeExceptionally(e);
+                }
+                return;
+            }
+            try {
+                Command command;
+                while ((command = outbound.poll()) != null) {
+                    // registered before the bytes leave, so the reader always finds the command its reply belongs to
+                    current.awaiting().offer(command);
+                    byte[] bytes = command.bytes();
+                    for (int offset = 0; offset < command.length(); ) {
+                        int length = Math.min(writeBuffer.remaining(), command.length() - offset);
+                        writeBuffer.put(bytes, offset, length);
+                        offset += length;
+                        if (!writeBuffer.hasRemaining()) {
+                            drain(current.channel());
+                        }
+                    }
+                }
+                drain(current.channel());
+            } catch (IOException e) {
+                writeBuffer.clear();
+                disconnect(current, e);
+            }
+        }
+
+        private void drain(SocketChannel channel) throws IOException {
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+            writeBuffer.clear();
+        }
+
+        private Link open() throws IOException {
+            Link current = link;
+            if (current != null) {
+                return current;
+            }
+            if (closed) {
+                throw new IOException("Valkey client closed");
+            }
+            if (System.nanoTime() - reconnectAt < 0) {
+                throw new IOException("Valkey unreachable at " + host + ":" + port);
+            }
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                // through the socket adaptor, since SocketChannel.connect itself takes no timeout
+                channel.socket().connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            } catch (IOException e) {
+                channel.close();
+                reconnectAt = System.nanoTime() + RECONNECT_BACKOFF_NANOS;
+                throw e;
+            }
+            Link opened = new Link(channel, new ConcurrentLinkedQueue<>());
+            link = opened;
+            Thread.ofVirtual().name("valkey-reader").start(() -> readLoop(opened));
+            return opened;
+        }
+
+        private void readLoop(Link current) {
+            Decoder decoder = new Decoder(current.channel());
+            Command command = null;
+            try {
+                while (true) {
+                    Object reply = decoder.read();
+                    if (command == null && (command = current.awaiting().poll()) == null) {
+                        throw new IOException("Reply without a pending command");
+                    }
+                    if (command.collected() == null) {
+                        complete(command.future(), reply);
+                        command = null;
+                    } else {
+                        command.collected().add(reply);
+                        if (command.collected().size() == command.replies()) {
+                            completeAll(command);
+                            command = null;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (command != null) {
+                    command.future().completeExceptionally(e);
+                }
+                disconnect(current, e);
+            }
+        }
+
+        private void complete(CompletableFuture<Object> future, Object reply) {
+            if (reply instanceof RespException error) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(reply);
+            }
+        }
+
+        private void completeAll(Command command) {
+            for (Object reply : command.collected()) {
+                if (reply instanceof RespException error) {
+                    command.future().completeExceptionally(error);
+                    return;
+                }
+            }
+            command.future().complete(command.collected());
+        }
+
+        private void disconnect(Link current, IOException cause) {
+            if (link == current) {
+                link = null;
+            }
+            try {
+                current.channel().close();
+            } catch (IOException ignore) {
+            }
+            Command command;
+            while ((command = current.awaiting().poll()) != null) {
+                command.future().completeExceptionally(cause);
+            }
+        }
+
+        private void fail(IOException cause) {
+            Link current = link;
+            if (current != null) {
+                disconnect(current, cause);
+            }
+        }
+    }
+
+    private static final class Encoder {
+
+        private byte[] bytes = new byte[512];
+        private int length;
+
+        private void command(Object[] args) {
+            put((byte) '*');
+            putNumber(args.length);
+            for (Object arg : args) {
+                switch (arg) {
+                    case byte[] raw -> {
+                        put((byte) '$');
+                        putNumber(raw.length);
+                        put(raw, raw.length);
+                    }
+                    case String text -> putText(text);
+                    case Long number -> putInteger(number);
+                    case Integer number -> putInteger(number);
+                    default -> putText(String.valueOf(arg));
+                }
+                putCrlf();
+            }
+        }
+
+        // keys, fields and numbers are ASCII, so they are copied without an intermediate byte[]
+        private void putText(String text) {
+            int textLength = text.length();
+            for (int i = 0; i < textLength; i++) {
+                if (text.charAt(i) >= 0x80) {
+                    byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+                    put((byte) '$');
+                    putNumber(utf8.length);
+                    put(utf8, utf8.length);
+                    return;
+                }
+            }
+            put((byte) '$');
+            putNumber(textLength);
+            ensure(textLength);
+            for (int i = 0; i < textLength; i++) {
+                bytes[length++] = (byte) text.charAt(i);
+            }
+        }
+
+        private void putInteger(long value) {
+            put((byte) '$');
+            putNumber(digits(value));
+            ensure(20);
+            length = writeDigits(value, bytes, length);
+        }
+
+        // a length or count prefix followed by its CRLF
+        private void putNumber(long value) {
+            ensure(22);
+            length = writeDigits(value, bytes, length);
+            putCrlf();
+        }
+
+        private void putCrlf() {
+            ensure(2);
+            bytes[length++] = '\r';
+            bytes[length++] = '\n';
+        }
+
+        private void put(byte value) {
+            ensure(1);
+            bytes[length++] = value;
+        }
+
+        private void put(byte[] value, int count) {
+            ensure(count);
+            System.arraycopy(value, 0, bytes, length, count);
+            length += count;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        private static int digits(long value) {
+            int digits = value < 0 ? 2 : 1;
+            for (long rest = Math.abs(value / 10); rest > 0; rest /= 10) {
+                digits++;
+            }
+            return digits;
+        }
+
+        private static int writeDigits(long value, byte[] target, int position) {
+            int end = position + digits(value);
+            if (value < 0) {
+                target[position] = '-';
+            }
+            int i = end;
+            do {
+                target[--i] = (byte) ('0' + Math.abs(value % 10));
+                value /= 10;
+            } while (value != 0);
+            return end;
+        }
+    }
+
+    /**
+     * Blocking RESP2/RESP3 parser over the channel; only the connection's reader calls it.
+     */
+    private static final class Decoder {
+
+        private final SocketChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE).flip();
+
+        private Decoder(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private Object read() throws IOException {
+            byte type = readByte();
+            return switch (type) {
+                case '+' -> readLine();
+                case '-', '!' -> new RespException(type == '-' ? readLine() : new String(readBulk(), StandardCharsets.UTF_8));
+                case ':' -> readLong();
+                case '$', '=' -> readBulk();
+                case '*', '~', '>' -> readArray(1);
+                case '%', '|' -> readArray(2);
+                case '_' -> {
+                    readLine();
+                    yield null;
+                }
+                case '#' -> "t".equals(readLine());
+                case ',' -> Double.parseDouble(readLine());
+                case '(' -> new BigInteger(readLine()).longValue();
+                default -> throw new IOException("Unexpected RESP type " + (char) type);
+            };
+        }
+
+        private List<Object> readArray(int perEntry) throws IOException {
+            long count = readLong();
+            if (count < 0) {
+                return null;
+            }
+            List<Object> values = new ArrayList<>((int) count * perEntry);
+            for (long i = 0; i < count * perEntry; i++) {
+                values.add(read());
+            }
+            return values;
+        }
+
+        private byte[] readBulk() throws IOException {
+            int length = (int) readLong();
+            if (length < 0) {
+                return null;
+            }
+            byte[] value = new byte[length];
+            for (int offset = 0; offset < length; ) {
+                fillIfEmpty();
+                int step = Math.min(buffer.remaining(), length - offset);
+                buffer.get(value, offset, step);
+                offset += step;
+            }
+            readByte();
+            readByte();
+            return value;
+        }
+
+        private long readLong() throws IOException {
+            byte b = readByte();
+            boolean negative = b == '-';
+            long value = negative ? 0 : b - '0';
+            while ((b = readByte()) != '\r') {
+                value = value * 10 + (b - '0');
+            }
+            readByte();
+            return negative ? -value : value;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            byte b;
+            while ((b = readByte()) != '\r') {
+                line.append((char) b);
+            }
+            readByte();
+            return line.toString();
+        }
+
+        private byte readByte() throws IOException {
+            fillIfEmpty();
+            return buffer.get();
+        }
+
+        private void fillIfEmpty() throws IOException {
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            buffer.clear();
+            int count = channel.read(buffer);
+            buffer.flip();
+            if (count < 0) {
+                throw new EOFException("Valkey closed the connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.ProcessorService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for processed payments. Savers only append; a flusher thread hands everything buffered
+ * to {@code writer} every {@code windowMillis}, or sooner once {@code batchSize} payments are waiting, so the
+ * writer can coalesce a whole window into a few commands. A saver that finds {@code 4 * batchSize} payments
+ * waiting flushes them itself, and no batch holds more than that.
+ * <p>
+ * Batches are numbered in the order they are written. A batch whose write fails is kept and written again,
+ * alone and under the same sequence, before anything newer: the failed write may still have been applied,
+ * and the sequence lets the writer tell.
+ * <p>
+ * {@code flag} is raised before {@code add} returns once something is buffered, and lowered when a flush
+ * leaves nothing behind, so other instances can tell whether there is anything here to wait for.
+ */
+class SaveCoalescer {
+
+    record PendingSave(Payment payment, ProcessorService service, long timestamp) {
+    }
+
+    @FunctionalInterface
+    interface BatchWriter {
+        void write(long sequence, List<PendingSave> batch);
+    }
+
+    @FunctionalInterface
+    interface PendingFlag {
+        void set(boolean pending);
+    }
+
+    private final BatchWriter writer;
+    private final PendingFlag flag;
+    private final ReentrantLock flagLock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<PendingSave> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final List<PendingSave> batch = new ArrayList<>();
+    private final int batchSize;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final Thread flusher;
+    private long sequence;
+    private volatile boolean flagged;
+    private volatile boolean running = true;
+
+    SaveCoalescer(BatchWriter writer, PendingFlag flag, int batchSize, long windowMillis) {
+        this.writer = writer;
+        this.flag = flag;
+        this.batchSize = batchSize;
+        this.maxBatchSize = 4 * batchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.flusher = Thread.ofVirtual().name("save-coalescer").start(this::flushLoop);
+    }
+
+    void add(Payment payment, ProcessorService service, long timestamp) {
+        buffer.offer(new PendingSave(payment, service, timestamp));
+        int pending = size.incrementAndGet();
+        if (!flagged) {
+            raiseFlag();
+        }
+        if (pending == batchSize) {
+            LockSupport.unpark(flusher);
+        } else if (pending >= maxBatchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes everything added before the call, waiting for a flush already under way.
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            if (!batch.isEmpty()) {
+                writer.write(sequence, batch);
+                batch.clear();
+            }
+            int remaining = size.get();
+            while (remaining > 0) {
+                PendingSave save;
+                while (batch.size() < maxBatchSize && (save = buffer.poll()) != null) {
+                    batch.add(save);
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                size.addAndGet(-batch.size());
+                remaining -= batch.size();
+                writer.write(++sequence, batch);
+                batch.clear();
+            }
+        } finally {
+            lowerFlagIfEmpty();
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Drops everything buffered and runs {@code switchover} before any later flush can start, so saves added
+     * after the switchover are never written under the state it replaced.
+     */
+    void clear(Runnable switchover) {
+        flushLock.lock();
+        try {
+            batch.clear();
+            while (buffer.poll() != null) {
+                size.decrementAndGet();
+            }
+            switchover.run();
+        } finally {
+            lowerFlagIfEmpty();
+            flushLock.unlock();
+        }
+    }
+
+    private void raiseFlag() {
+        flagLock.lock();
+        try {
+            if (flagged) {
+                return;
+            }
+            flag.set(true);
+            flagged = true;
+        } catch (RuntimeException ignore) {
+            // raised again by the next add
+        } finally {
+            flagLock.unlock();
+        }
+    }
+
+    // flagged is cleared before size is read and add() increments size before reading flagged,
+    // so a save racing with this either keeps the flag up or raises it again afterwards
+    private void lowerFlagIfEmpty() {
+        if (!flagged || !batch.isEmpty()) {
+            return;
+        }
+        flagLock.lock();
+        try {
+            flagged = false;
+            if (size.get() > 0) {
+                flagged = true;
+                return;
+            }
+            flag.set(false);
+        } catch (RuntimeException e) {
+            flagged = true;
+        } finally {
+            flagLock.unlock();
+        }
+    }
+
+    void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.NANOSECONDS.toMillis(windowNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            if (size.get() < batchSize) {
+                LockSupport.parkNanos(windowNanos);
+            }
+            tryFlush();
+        }
+        tryFlush();
+    }
+
+    private void tryFlush() {
+        try {
+            flush();
+        } catch (Exception ignore) {
+            // the batch stays for the next window
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.gasparbarancelli.datasource;
+
+public enum SummaryStrategy {
+
+    ZSET,
+    BUCKETS
+
+}
@@ -1,14 +1,15 @@
 package com.gasparbarancelli.entity;
 
-import java.math.BigDecimal;
-
-public record Payment(String correlationId, BigDecimal amount) {
+/**
+ * A payment request, with its amount in cents.
+ */
+public record Payment(String correlationId, long amountCents) {
     public Payment {
         if (correlationId == null) {
             throw new IllegalArgumentException("correlationId cannot be null");
         }
-        if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
+        if (amountCents <= 0) {
             throw new IllegalArgumentException("amount must be positive");
         }
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,11 @@
 package com.gasparbarancelli.entity;
 
-import java.math.BigDecimal;
-
 public record PaymentSummary(
         ProcessorSummary defaultProcessor,
         ProcessorSummary fallback
 ) {
     public record ProcessorSummary(
             long totalRequests,
-            BigDecimal totalAmount
+            long totalAmountCents
     ) {}
-}
\ No newline at end of file
+}
@@ -0,0 +1,10 @@
+package com.gasparbarancelli.entity;
+
+/**
+ * Processor state found by the instance holding the health check lease and shared with the others:
+ * the processor to prefer plus what each health endpoint last advertised.
+ */
+public record ProcessorHealth(ProcessorService preferred,
+                              boolean defaultFailing, int defaultMinResponseTime,
+                              boolean fallbackFailing, int fallbackMinResponseTime) {
+}
@@ -0,0 +1,16 @@
+package com.gasparbarancelli.entity;
+
+/**
+ * A payment waiting for another attempt. {@code processor} is set once a call timed out on it: the payment
+ * may have been taken there, so it is only ever retried on that processor; {@code null} allows either.
+ */
+public record RetryPayment(Payment payment, int attempt, ProcessorService processor) {
+
+    public static final int MAX_ATTEMPT = 63;
+
+    public RetryPayment {
+        if (attempt < 1 || attempt > MAX_ATTEMPT) {
+            throw new IllegalArgumentException("attempt must be between 1 and " + MAX_ATTEMPT);
+        }
+    }
+}
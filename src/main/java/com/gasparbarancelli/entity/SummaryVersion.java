@@ -0,0 +1,8 @@
+package com.gasparbarancelli.entity;
+
+/**
+ * Identifies the state of the recorded payments: {@code epoch} changes on every purge and {@code version}
+ * on every recorded payment, so a summary computed under the same pair is still exact.
+ */
+public record SummaryVersion(long epoch, long version) {
+}
@@ -0,0 +1,16 @@
+package com.gasparbarancelli.interactor;
+
+/**
+ * Outcome of offering a new payment to {@link PaymentService#processPayment}.
+ */
+public enum Admission {
+    ACCEPTED,
+    /**
+     * This instance already holds as many payments as its in-flight budget allows.
+     */
+    THROTTLED,
+    /**
+     * The shared queue is over its backlog budget, the processors are not keeping up.
+     */
+    OVERLOADED
+}
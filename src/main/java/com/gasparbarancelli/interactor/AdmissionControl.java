@@ -0,0 +1,95 @@
+package com.gasparbarancelli.interactor;
+
+import com.gasparbarancelli.metrics.Counter;
+import com.gasparbarancelli.metrics.Metrics;
+import com.gasparbarancelli.repository.PaymentRepository;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded admission of new payments. Two budgets are checked before a payment is accepted: the payments this
+ * instance holds, still waiting to be enqueued, prefetched or with a processor call in flight, and the length
+ * of the shared queue. Only the enqueue buffer is read on every request; the rest, which takes locks or a
+ * round trip to the repository, is sampled every {@code SAMPLE_INTERVAL_MILLIS} by a background thread.
+ * A budget of zero or less disables its check. Whatever the budgets, a payment is refused once those held and
+ * queued would fill a repository of bounded capacity, since a processed payment it cannot save is lost from the
+ * summary.
+ */
+class AdmissionControl {
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 20;
+    private static final String SHED = "payment_shed_total";
+    private static final String SHED_HELP = "Payments refused by admission control, by exhausted budget.";
+
+    private final PaymentRepository repository;
+    private final IntSupplier pending;
+    private final LongSupplier held;
+    private final long maxInFlight;
+    private final long maxBacklog;
+    private final Counter shedInFlight = Metrics.counter(SHED, SHED_HELP, "reason=\"in_flight\"");
+    private final Counter shedBacklog = Metrics.counter(SHED, SHED_HELP, "reason=\"backlog\"");
+    private final Counter shedCapacity = Metrics.counter(SHED, SHED_HELP, "reason=\"capacity\"");
+    private final Thread sampler;
+    private volatile long sampledHeld;
+    private volatile long sampledQueueLength;
+    private volatile long sampledCapacity = Long.MAX_VALUE;
+    private volatile boolean running = true;
+
+    /**
+     * @param pending payments accepted and not yet handed to the repository, read on every request
+     * @param held    payments taken from the queue and not finished yet, sampled
+     */
+    AdmissionControl(PaymentRepository repository, IntSupplier pending, LongSupplier held,
+                     long maxInFlight, long maxBacklog) {
+        this.repository = repository;
+        this.pending = pending;
+        this.held = held;
+        this.maxInFlight = maxInFlight;
+        this.maxBacklog = maxBacklog;
+        this.sampler = Thread.ofVirtual().name("admission-sampler").start(this::sampleLoop);
+    }
+
+    Admission admit() {
+        long inFlight = pending.getAsInt() + sampledHeld;
+        if (maxInFlight > 0 && inFlight >= maxInFlight) {
+            shedInFlight.increment();
+            return Admission.THROTTLED;
+        }
+        if (maxBacklog > 0 && sampledQueueLength >= maxBacklog) {
+            shedBacklog.increment();
+            return Admission.OVERLOADED;
+        }
+        if (inFlight + sampledQueueLength >= sampledCapacity) {
+            shedCapacity.increment();
+            return Admission.OVERLOADED;
+        }
+        return Admission.ACCEPTED;
+    }
+
+    long queueLength() {
+        return sampledQueueLength;
+    }
+
+    void close() {
+        running = false;
+        LockSupport.unpark(sampler);
+    }
+
+    private void sampleLoop() {
+        while (running) {
+            sampledHeld = held.getAsLong();
+            try {
+                sampledCapacity = repository.remainingCapacity();
+                if (maxBacklog > 0 || sampledCapacity != Long.MAX_VALUE) {
+                    sampledQueueLength = repository.queueLength();
+                }
+            } catch (Exception ignore) {
+                // keep the last samples, the enqueue itself reports the repository being down
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL_MILLIS));
+        }
+    }
+}
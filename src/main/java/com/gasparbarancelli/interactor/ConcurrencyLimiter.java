@@ -0,0 +1,146 @@
+package com.gasparbarancelli.interactor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Adaptive cap on the calls in flight to one processor, in the style of a gradient limiter. Each completed
+ * call compares its round trip with the shortest one seen recently: while they stay close the limit grows by
+ * about {@code sqrt(limit)}, and as the processor starts queueing the ratio pulls it back. A timeout or an
+ * overloaded answer cuts it multiplicatively. The limit only grows while there is work it could take: payments
+ * buffered for dispatch, as reported by {@code backlog}, a dispatch waiting for a slot, or calls in flight
+ * using at least half the limit. An idle processor does not inflate it.
+ */
+class ConcurrencyLimiter {
+
+    private static final double MIN_LIMIT = 4;
+    private static final double MAX_LIMIT = 200;
+    private static final double RTT_TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final long MIN_RTT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final IntSupplier backlog;
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long minRttNanos;
+    private long minRttResetAt;
+
+    ConcurrencyLimiter(int initialLimit, IntSupplier backlog) {
+        this.backlog = backlog;
+        this.limit = Math.clamp(initialLimit, MIN_LIMIT, MAX_LIMIT);
+    }
+
+    /**
+     * Takes a slot if one is free right away, without waiting.
+     */
+    boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits at most {@code timeout} for a slot; the wait counts as demand for the limit to grow.
+     */
+    boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees a slot whose call was never made, leaving the limit as it is.
+     */
+    void cancel() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the slot of a completed call; {@code overloaded} is set when the call timed out or the
+     * processor answered that it could not take it.
+     */
+    void release(long rttNanos, boolean overloaded) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (overloaded) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+            } else {
+                adjust(rttNanos);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust(long rttNanos) {
+        long now = System.nanoTime();
+        if (minRttNanos == 0 || now - minRttResetAt >= 0) {
+            // the baseline is re-learnt periodically, so a processor that got slower for good is not judged forever
+            minRttNanos = rttNanos;
+            minRttResetAt = now + MIN_RTT_WINDOW_NANOS;
+        } else {
+            minRttNanos = Math.min(minRttNanos, rttNanos);
+        }
+        if (waiting == 0 && inFlight < limit / 2 && backlog.getAsInt() == 0) {
+            return;
+        }
+        double gradient = Math.clamp(RTT_TOLERANCE * minRttNanos / Math.max(1, rttNanos), 0.5, 1.0);
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.clamp(limit * (1 - SMOOTHING) + target * SMOOTHING, MIN_LIMIT, MAX_LIMIT);
+    }
+}
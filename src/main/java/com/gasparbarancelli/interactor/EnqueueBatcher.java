@@ -0,0 +1,110 @@
+package com.gasparbarancelli.interactor;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.metrics.Counter;
+import com.gasparbarancelli.metrics.Histogram;
+import com.gasparbarancelli.metrics.Metrics;
+import com.gasparbarancelli.repository.PaymentRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free multi-producer buffer in front of {@link PaymentRepository#enqueuePayments(List)}.
+ * Producers only append to the buffer; a single flusher thread drains it every {@code windowMillis}
+ * or as soon as {@code batchSize} payments are waiting, and pushes them with one multi-value LPUSH.
+ * A batch whose push fails is kept, still counted as pending, and pushed again on the next window.
+ */
+class EnqueueBatcher {
+
+    private static final Histogram ENQUEUE_LATENCY = Metrics.histogram("payment_enqueue_duration_seconds",
+            "Time spent pushing a batch of payments to the queue.", null);
+
+    private final PaymentRepository repository;
+    private final ConcurrentLinkedQueue<Payment> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Counter failures = Metrics.counter("payment_enqueue_failures_total",
+            "Batches of payments whose push to the queue failed and was retried.", null);
+    private final List<Payment> batch;
+    private final int batchSize;
+    private final long windowNanos;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    EnqueueBatcher(PaymentRepository repository, int batchSize, long windowMillis) {
+        this.repository = repository;
+        this.batchSize = batchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.batch = new ArrayList<>(batchSize);
+        this.flusher = Thread.ofVirtual().name("enqueue-batcher").start(this::flushLoop);
+    }
+
+    void offer(Payment payment) {
+        buffer.offer(payment);
+        if (size.incrementAndGet() == batchSize) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    int pending() {
+        return size.get();
+    }
+
+    void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.NANOSECONDS.toMillis(windowNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        boolean failed = false;
+        while (running) {
+            // after a failure, wait a window before retrying instead of spinning on a full batch
+            if (failed || size.get() < batchSize) {
+                LockSupport.parkNanos(windowNanos);
+            }
+            failed = !flush();
+        }
+        flush();
+    }
+
+    private boolean flush() {
+        do {
+            Payment payment;
+            while (batch.size() < batchSize && (payment = buffer.poll()) != null) {
+                batch.add(payment);
+            }
+            if (!push()) {
+                return false;
+            }
+        } while (!buffer.isEmpty());
+        return true;
+    }
+
+    private boolean push() {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            repository.enqueuePayments(batch);
+        } catch (Exception e) {
+            // the client was already answered, so the batch stays for the next attempt
+            failures.increment();
+            return false;
+        } finally {
+            ENQUEUE_LATENCY.recordSince(start);
+        }
+        size.addAndGet(-batch.size());
+        batch.clear();
+        return true;
+    }
+}
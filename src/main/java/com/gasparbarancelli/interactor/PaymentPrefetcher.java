@@ -0,0 +1,154 @@
+package com.gasparbarancelli.interactor;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.metrics.Counter;
+import com.gasparbarancelli.metrics.Histogram;
+import com.gasparbarancelli.metrics.Metrics;
+import com.gasparbarancelli.repository.PaymentRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local buffer drained by the workers, bounded by {@code capacity}. Payments received by this instance go
+ * straight into it with {@link #offerLocal}, skipping the shared queue. A single fetcher tops it up from the
+ * shared queue with {@link PaymentRepository#dequeuePayments(int)} once it falls to half of {@code depth},
+ * and only falls back to the blocking {@link PaymentRepository#dequeuePayment(int)} when it is empty, after
+ * signalling the other instances that this one is idle. While it holds more than {@code depth} payments and
+ * another instance is idle, the fetcher moves half of the excess to the shared queue instead.
+ */
+class PaymentPrefetcher {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long REBALANCE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    // outlives a blocking dequeue, so the signal stays up while the instance waits for work
+    private static final long IDLE_SIGNAL_TTL_MILLIS = 1500;
+    private static final Histogram DEQUEUE_LATENCY = Metrics.histogram("payment_dequeue_duration_seconds",
+            "Time spent fetching a batch of payments from the queue.", null);
+
+    private final PaymentRepository repository;
+    private final String instanceId;
+    private final ArrayBlockingQueue<Payment> buffer;
+    private final int depth;
+    private final int refillThreshold;
+    private final Counter rebalanced = Metrics.counter("payment_rebalanced_total",
+            "Local payments moved to the shared queue for an idle instance.", null);
+    private final Thread fetcher;
+    private long nextRebalance;
+    private boolean signalledIdle;
+    private volatile boolean running = true;
+
+    PaymentPrefetcher(PaymentRepository repository, String instanceId, int depth, int capacity) {
+        this.repository = repository;
+        this.instanceId = instanceId;
+        this.depth = depth;
+        this.refillThreshold = Math.max(1, depth / 2);
+        this.buffer = new ArrayBlockingQueue<>(Math.max(depth, capacity));
+        this.fetcher = Thread.ofVirtual().name("payment-prefetcher").start(this::fetchLoop);
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    int buffered() {
+        return buffer.size();
+    }
+
+    /**
+     * Queues a payment received by this instance, or returns {@code false} when the buffer is full.
+     */
+    boolean offerLocal(Payment payment) {
+        return buffer.offer(payment);
+    }
+
+    Payment take(long timeout, TimeUnit unit) throws InterruptedException {
+        Payment payment = buffer.poll(timeout, unit);
+        if (buffer.size() <= refillThreshold) {
+            LockSupport.unpark(fetcher);
+        }
+        return payment;
+    }
+
+    void close() {
+        running = false;
+        fetcher.interrupt();
+        try {
+            fetcher.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Payment> remaining = new ArrayList<>(buffer.size());
+        buffer.drainTo(remaining);
+        repository.enqueuePayments(remaining);
+    }
+
+    private void fetchLoop() {
+        while (running) {
+            try {
+                int missing = depth - buffer.size();
+                if (signalledIdle && !buffer.isEmpty()) {
+                    signalledIdle = false;
+                    repository.signalIdle(instanceId, 0);
+                }
+                if (missing < refillThreshold) {
+                    rebalance();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                List<Payment> payments = repository.dequeuePayments(missing);
+                DEQUEUE_LATENCY.recordSince(start);
+                if (!payments.isEmpty()) {
+                    for (Payment payment : payments) {
+                        buffer.put(payment);
+                    }
+                } else if (buffer.isEmpty()) {
+                    repository.signalIdle(instanceId, IDLE_SIGNAL_TTL_MILLIS);
+                    signalledIdle = true;
+                    Payment payment = repository.dequeuePayment(0);
+                    if (payment != null) {
+                        buffer.put(payment);
+                    }
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception ignore) {
+            }
+        }
+    }
+
+    private void rebalance() {
+        long now = System.nanoTime();
+        int excess = buffer.size() - depth;
+        if (excess <= 1 || now < nextRebalance) {
+            return;
+        }
+        nextRebalance = now + REBALANCE_INTERVAL_NANOS;
+        if (!repository.isPeerIdle(instanceId)) {
+            return;
+        }
+        List<Payment> shared = new ArrayList<>(excess / 2);
+        buffer.drainTo(shared, excess / 2);
+        try {
+            repository.enqueuePayments(shared);
+            rebalanced.add(shared.size());
+        } catch (Exception e) {
+            // handed back, waiting for the workers if local payments took the room meanwhile
+            for (Payment payment : shared) {
+                try {
+                    buffer.put(payment);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package com.gasparbarancelli.interactor;
 
-import com.gasparbarancelli.datasource.PaymentRepositoryInMemory;
+import com.gasparbarancelli.datasource.PaymentRepositoryFactory;
 import com.gasparbarancelli.entity.Payment;
 import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.entity.ProcessorHealth;
+import com.gasparbarancelli.entity.SummaryVersion;
 import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.entity.RetryPayment;
+import com.gasparbarancelli.metrics.Counter;
+import com.gasparbarancelli.metrics.Histogram;
+import com.gasparbarancelli.metrics.Metrics;
 import com.gasparbarancelli.repository.PaymentRepository;
+import com.gasparbarancelli.transport.BytePool;
 import com.gasparbarancelli.transport.JsonUtils;
+import com.gasparbarancelli.transport.PaymentPayloadWriter;
+import com.gasparbarancelli.transport.ProcessorClient;
 import com.gasparbarancelli.transport.model.ServiceHealthRequest;
 
 import java.io.IOException;
@@ -15,34 +24,56 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.UUID;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
 
 public class PaymentService {
     private final PaymentRepository repository;
     private final HttpClient httpClient;
+    private final ProcessorClient defaultClient;
+    private final ProcessorClient fallbackClient;
     private final ScheduledExecutorService scheduler;
     private final ExecutorService workers;
-    private final AtomicReference<ProcessorState> healthyProcessor;
-    private final URI defaultPaymentUri;
-    private final URI fallbackPaymentUri;
+    private final EnqueueBatcher enqueueBatcher;
+    private final PaymentPrefetcher prefetcher;
+    private final RetryScheduler retryScheduler;
+    private final ConcurrencyLimiter defaultLimiter;
+    private final ConcurrencyLimiter fallbackLimiter;
+    private final ProcessorRouter router;
+    private final AdmissionControl admission;
     private final URI defaultHealthUri;
     private final URI fallbackHealthUri;
-    private volatile long lastHealthCheck = 0;
-    private static final long HEALTH_CACHE_MS = 5000;
+    private final String instanceId = UUID.randomUUID().toString();
+    private ProcessorHealth lastPublished;
+    private static final long HEALTH_CHECK_INTERVAL_SECONDS = 6;
+    private static final long HEALTH_LEASE_MS = 15_000;
 
-    private static final int WORKER_COUNT = 20;
+    private static final int INITIAL_CONCURRENCY_LIMIT = 20;
+    private static final long SLOT_WAIT_MILLIS = 10;
     private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(100);
-    private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(500);
     private static final Duration HEALTH_CHECK_TIMEOUT = Duration.ofMillis(200);
-    private static final String CONTENT_TYPE_HEADER = "Content-Type";
-    private static final String APPLICATION_JSON = "application/json";
-
-    private record ProcessorState(ProcessorService service, URI uri) {
-    }
+    private static final BytePool PAYLOAD_BUFFERS = new BytePool(32, PaymentPayloadWriter.MAX_PAYLOAD_SIZE);
+
+    private static final String PROCESSOR_LATENCY = "processor_call_duration_seconds";
+    private static final String PROCESSOR_LATENCY_HELP = "Round trip of the calls to a payment processor.";
+    private static final Histogram DEFAULT_CALL_LATENCY = Metrics.histogram(PROCESSOR_LATENCY, PROCESSOR_LATENCY_HELP, "processor=\"default\"");
+    private static final Histogram FALLBACK_CALL_LATENCY = Metrics.histogram(PROCESSOR_LATENCY, PROCESSOR_LATENCY_HELP, "processor=\"fallback\"");
+    private static final String PROCESSOR_FAILURES = "processor_call_failures_total";
+    private static final String PROCESSOR_FAILURES_HELP = "Calls to a payment processor that did not succeed.";
+    private static final Counter DEFAULT_CALL_FAILURES = Metrics.counter(PROCESSOR_FAILURES, PROCESSOR_FAILURES_HELP, "processor=\"default\"");
+    private static final Counter FALLBACK_CALL_FAILURES = Metrics.counter(PROCESSOR_FAILURES, PROCESSOR_FAILURES_HELP, "processor=\"fallback\"");
+    private static final Histogram DEQUEUE_WAIT = Metrics.histogram("payment_dequeue_wait_seconds",
+            "Time the dispatcher waited for the next payment.", null);
+    private static final Histogram SAVE_LATENCY = Metrics.histogram("payment_save_duration_seconds",
+            "Time spent recording a processed payment.", null);
+    private static final Counter SAVE_FAILURES = Metrics.counter("payment_save_failures_total",
+            "Payments accepted by a processor that could not be recorded.", null);
+    private static final Histogram SUMMARY_LATENCY = Metrics.histogram("payment_summary_query_duration_seconds",
+            "Time spent computing a payments summary.", null);
 
     public PaymentService() {
-        this.repository = new PaymentRepositoryInMemory();
+        this.repository = PaymentRepositoryFactory.create();
 
         String defaultBase = System.getenv().getOrDefault(
                 "PAYMENT_PROCESSOR_URL_DEFAULT",
@@ -53,12 +84,17 @@ public class PaymentService {
                 "http://localhost:8002"
         );
 
-        this.defaultPaymentUri = URI.create(defaultBase + "/payments");
-        this.fallbackPaymentUri = URI.create(fallbackBase + "/payments");
         this.defaultHealthUri = URI.create(defaultBase + "/payments/service-health");
         this.fallbackHealthUri = URI.create(fallbackBase + "/payments/service-health");
 
-        this.healthyProcessor = new AtomicReference<>(new ProcessorState(ProcessorService.DEFAULT, defaultPaymentUri));
+        this.router = new ProcessorRouter();
+
+        int processorConnections = Integer.parseInt(System.getenv().getOrDefault("PROCESSOR_CONNECTIONS", "128"));
+        int pipelineDepth = Integer.parseInt(System.getenv().getOrDefault("PROCESSOR_PIPELINE_DEPTH", "1"));
+        this.defaultClient = new ProcessorClient(URI.create(defaultBase + "/payments"),
+                processorConnections, pipelineDepth, CONNECT_TIMEOUT);
+        this.fallbackClient = new ProcessorClient(URI.create(fallbackBase + "/payments"),
+                processorConnections, pipelineDepth, CONNECT_TIMEOUT);
 
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(CONNECT_TIMEOUT)
@@ -75,74 +111,191 @@ public class PaymentService {
 
         this.workers = Executors.newVirtualThreadPerTaskExecutor();
 
-        startWorkers();
+        int enqueueBatchSize = Integer.parseInt(System.getenv().getOrDefault("ENQUEUE_BATCH_SIZE", "64"));
+        long enqueueBatchWindowMs = Long.parseLong(System.getenv().getOrDefault("ENQUEUE_BATCH_WINDOW_MS", "2"));
+        this.enqueueBatcher = new EnqueueBatcher(repository, enqueueBatchSize, enqueueBatchWindowMs);
+
+        int prefetchDepth = Integer.parseInt(System.getenv().getOrDefault("PREFETCH_DEPTH", "32"));
+        int localQueueCapacity = Integer.parseInt(System.getenv().getOrDefault("LOCAL_QUEUE_CAPACITY", "1024"));
+        this.prefetcher = new PaymentPrefetcher(repository, instanceId, prefetchDepth, localQueueCapacity);
+
+        int retryMaxAttempts = Integer.parseInt(System.getenv().getOrDefault("RETRY_MAX_ATTEMPTS", "8"));
+        this.retryScheduler = new RetryScheduler(repository, retryMaxAttempts);
+
+        // payments buffered here or due for a retry are the dispatch backlog both limits grow against
+        IntSupplier backlog = () -> prefetcher.buffered() + retryScheduler.dueCount();
+        this.defaultLimiter = new ConcurrencyLimiter(INITIAL_CONCURRENCY_LIMIT, backlog);
+        this.fallbackLimiter = new ConcurrencyLimiter(INITIAL_CONCURRENCY_LIMIT, backlog);
+
+        long maxInFlight = Long.parseLong(System.getenv().getOrDefault("ADMISSION_MAX_IN_FLIGHT", "4096"));
+        long maxBacklog = Long.parseLong(System.getenv().getOrDefault("ADMISSION_MAX_BACKLOG", "50000"));
+        this.admission = new AdmissionControl(repository, enqueueBatcher::pending,
+                () -> prefetcher.buffered() + defaultLimiter.inFlight() + fallbackLimiter.inFlight(),
+                maxInFlight, maxBacklog);
+
+        workers.submit(this::dispatchLoop);
+        registerGauges();
         startHealthChecks();
     }
 
-    private void startWorkers() {
-        for (int i = 0; i < WORKER_COUNT; i++) {
-            final int workerId = i;
-            workers.submit(() -> processPaymentsLoop(workerId));
-        }
+    private void registerGauges() {
+        Metrics.gauge("payment_enqueue_pending", "Payments waiting for the next enqueue batch.", null,
+                enqueueBatcher::pending);
+        Metrics.gauge("payment_prefetch_buffered", "Payments received or fetched from the queue and not yet dispatched.", null,
+                prefetcher::buffered);
+        Metrics.gauge("payment_retries_due", "Retries due and waiting to be dispatched.", null,
+                retryScheduler::dueCount);
+        Metrics.gauge("payment_queue_length", "Payments in the shared queue, as last sampled by admission control.", null,
+                admission::queueLength);
+        Metrics.gauge("processor_in_flight", "Calls in flight to a payment processor.", "processor=\"default\"",
+                defaultLimiter::inFlight);
+        Metrics.gauge("processor_in_flight", "Calls in flight to a payment processor.", "processor=\"fallback\"",
+                fallbackLimiter::inFlight);
+        Metrics.gauge("processor_concurrency_limit", "Current adaptive limit of calls in flight.", "processor=\"default\"",
+                defaultLimiter::limit);
+        Metrics.gauge("processor_concurrency_limit", "Current adaptive limit of calls in flight.", "processor=\"fallback\"",
+                fallbackLimiter::limit);
     }
 
-    private void processPaymentsLoop(int workerId) {
+    // Hands each payment, due retries first, to its own virtual thread once a processor's limiter has room for it.
+    private void dispatchLoop() {
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                Payment request = repository.dequeuePayment(workerId);
+                RetryPayment retry = retryScheduler.pollDue();
+                if (retry != null && dispatch(retry.payment(), retry.attempt(), retry.processor())) {
+                    continue;
+                }
+                long waitStart = System.nanoTime();
+                Payment request = prefetcher.take(100, TimeUnit.MILLISECONDS);
                 if (request != null) {
-                    processPaymentToProcessor(request);
+                    DEQUEUE_WAIT.recordSince(waitStart);
+                    dispatch(request, 1, null);
                 }
+            } catch (InterruptedException e) {
+                return;
             } catch (Exception ignore) {
             }
         }
     }
 
-    private void processPaymentToProcessor(Payment request) {
+    /**
+     * The dispatcher never parks on one processor for long: a payment its processor still has no room for after
+     * {@code SLOT_WAIT_MILLIS} goes to the other one when that is not failing, and a retry pinned to a full
+     * processor is put back behind the others, returning {@code false} so a fresh payment gets its turn.
+     */
+    private boolean dispatch(Payment request, int attempt, ProcessorService pinned) throws InterruptedException {
+        ProcessorRouter.Route route = acquireRoute(pinned);
+        if (route == null) {
+            retryScheduler.requeue(new RetryPayment(request, attempt, pinned));
+            return false;
+        }
         try {
-            ProcessorState currentProcessor = getCachedHealthyProcessor();
-            String requestBody = JsonUtils.toJson(request);
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(currentProcessor.uri)
-                    .header(CONTENT_TYPE_HEADER, APPLICATION_JSON)
-                    .timeout(REQUEST_TIMEOUT)
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
-
-            HttpResponse<Void> response = httpClient.send(httpRequest,
-                    HttpResponse.BodyHandlers.discarding());
+            workers.execute(() -> processPaymentToProcessor(request, attempt, route, pinned));
+        } catch (RejectedExecutionException e) {
+            limiter(route.service()).cancel();
+            throw e;
+        }
+        return true;
+    }
 
-            if (response.statusCode() >= 200 && response.statusCode() < 300) {
-                repository.savePayment(request, currentProcessor.service);
+    // a route whose limiter slot is already taken, or null when the pinned processor stayed full
+    private ProcessorRouter.Route acquireRoute(ProcessorService pinned) throws InterruptedException {
+        while (true) {
+            ProcessorRouter.Route route = pinned != null ? router.route(pinned) : router.route();
+            if (limiter(route.service()).tryAcquire(SLOT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return route;
+            }
+            if (pinned != null) {
+                return null;
+            }
+            ProcessorRouter.Route other = router.alternative(route.service());
+            if (other != null && limiter(other.service()).tryAcquire()) {
+                return other;
             }
-        } catch (Exception ignore) {
         }
     }
 
-    private ProcessorState getCachedHealthyProcessor() {
-        long now = System.currentTimeMillis();
-        if (now - lastHealthCheck < HEALTH_CACHE_MS) {
-            return healthyProcessor.get();
+    private ConcurrencyLimiter limiter(ProcessorService service) {
+        return service == ProcessorService.DEFAULT ? defaultLimiter : fallbackLimiter;
+    }
+
+    /**
+     * Only a 5xx or a 429 proves the processor did not take the payment, so only those leave the retry free to
+     * go to either processor. A call that timed out or lost its connection may have been taken, so the payment
+     * is pinned to that processor from then on, and a 422 there on a later attempt means the earlier one went
+     * through: the processor refuses the duplicate, and the payment is recorded as processed by it.
+     */
+    private void processPaymentToProcessor(Payment request, int attempt, ProcessorRouter.Route route,
+                                           ProcessorService pinned) {
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean retry = true;
+        ProcessorService retryOn = pinned;
+        byte[] payload = PAYLOAD_BUFFERS.acquire();
+        try {
+            int payloadLength = PaymentPayloadWriter.write(request, payload);
+            ProcessorClient client = route.service() == ProcessorService.DEFAULT ? defaultClient : fallbackClient;
+            int status = client.post(payload, payloadLength, route.timeout());
+            if ((status >= 200 && status < 300) || (status == 422 && pinned != null)) {
+                success = true;
+                retry = false;
+                long saveStart = System.nanoTime();
+                try {
+                    repository.savePayment(request, route.service());
+                } catch (RuntimeException e) {
+                    SAVE_FAILURES.increment();
+                    throw e;
+                }
+                SAVE_LATENCY.recordSince(saveStart);
+            } else if (status >= 400 && status < 500 && status != 429) {
+                // rejected, sending it again would get the same answer
+                retry = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            retryOn = route.service();
+        } finally {
+            PAYLOAD_BUFFERS.release(payload);
+            long latency = System.nanoTime() - start;
+            boolean isDefault = route.service() == ProcessorService.DEFAULT;
+            (isDefault ? DEFAULT_CALL_LATENCY : FALLBACK_CALL_LATENCY).recordNanos(latency);
+            if (!success) {
+                (isDefault ? DEFAULT_CALL_FAILURES : FALLBACK_CALL_FAILURES).increment();
+            }
+            router.recordCall(route.service(), latency, success);
+            limiter(route.service()).release(latency, retry && !success);
+        }
+        if (retry) {
+            retryScheduler.schedule(request, attempt + 1, retryOn);
         }
-        scheduler.execute(this::performHealthCheck);
-        return healthyProcessor.get();
     }
 
+    /**
+     * One instance holds a lease and is the only one calling the health endpoints; whenever the state it
+     * finds changes it is published, and every instance, the leader included, applies it to its router as
+     * the notification arrives. The others only retry the lease, taking over once the leader stops renewing.
+     */
     private void startHealthChecks() {
-        scheduler.scheduleWithFixedDelay(this::performHealthCheck, 0, 6, TimeUnit.SECONDS);
+        try {
+            repository.subscribeProcessorHealth(router::apply);
+        } catch (Exception ignore) {
+        }
+        scheduler.scheduleWithFixedDelay(this::performHealthCheck, 0, HEALTH_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
     }
 
     private void performHealthCheck() {
         try {
-            if (repository.acquireHealthCheckLock()) {
-                try {
-                    updateHealthyProcessor();
-                    lastHealthCheck = System.currentTimeMillis();
-                } finally {
-                    repository.releaseHealthCheckLock();
-                }
-            } else {
-                readHealthStatusFromRepository();
+            if (!repository.acquireHealthLeadership(instanceId, HEALTH_LEASE_MS)) {
+                // another leader may publish meanwhile, so whatever we find after taking the lease back is published
+                lastPublished = null;
+                return;
+            }
+            updateHealthyProcessor();
+            ProcessorHealth health = router.health();
+            if (!health.equals(lastPublished)) {
+                repository.publishProcessorHealth(health);
+                lastPublished = health;
             }
         } catch (Exception ignore) {
         }
@@ -150,35 +303,31 @@ public class PaymentService {
 
     private void updateHealthyProcessor() {
         CompletableFuture<Boolean> defaultCheck = CompletableFuture.supplyAsync(() ->
-                checkHealth(defaultHealthUri), workers);
+                checkHealth(ProcessorService.DEFAULT, defaultHealthUri), workers);
         CompletableFuture<Boolean> fallbackCheck = CompletableFuture.supplyAsync(() ->
-                checkHealth(fallbackHealthUri), workers);
+                checkHealth(ProcessorService.FALLBACK, fallbackHealthUri), workers);
 
         try {
             Boolean defaultHealthy = defaultCheck.get(300, TimeUnit.MILLISECONDS);
             Boolean fallbackHealthy = fallbackCheck.get(300, TimeUnit.MILLISECONDS);
 
             ProcessorService selectedService;
-            URI selectedUri;
 
             if (defaultHealthy) {
                 selectedService = ProcessorService.DEFAULT;
-                selectedUri = defaultPaymentUri;
             } else if (fallbackHealthy) {
                 selectedService = ProcessorService.FALLBACK;
-                selectedUri = fallbackPaymentUri;
             } else {
                 return;
             }
 
-            healthyProcessor.set(new ProcessorState(selectedService, selectedUri));
-            repository.storeHealthyProcessor(selectedService);
+            router.prefer(selectedService);
         } catch (Exception ignore) {
 
         }
     }
 
-    private boolean checkHealth(URI healthUri) {
+    private boolean checkHealth(ProcessorService service, URI healthUri) {
         try {
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(healthUri)
@@ -191,6 +340,7 @@ public class PaymentService {
 
             if (response.statusCode() == 200) {
                 ServiceHealthRequest health = JsonUtils.parseServiceHealth(response.body());
+                router.updateHealth(service, health);
                 return !health.failing();
             }
 
@@ -200,36 +350,93 @@ public class PaymentService {
         }
     }
 
-    private void readHealthStatusFromRepository() {
-        ProcessorService service = repository.getHealthyProcessor();
+    /**
+     * Queues the payment unless admission control refuses it, in which case nothing is kept. It stays in the local
+     * buffer, drained by this instance's workers, and only goes to the shared queue when that buffer is full.
+     */
+    public Admission processPayment(Payment request) {
+        Admission outcome = admission.admit();
+        if (outcome == Admission.ACCEPTED && !prefetcher.offerLocal(request)) {
+            enqueueBatcher.offer(request);
+        }
+        return outcome;
+    }
+
+    public PaymentSummary getPaymentsSummary() {
+        return getPaymentsSummary(null, null);
+    }
 
-        if (ProcessorService.DEFAULT.equals(service)) {
-            healthyProcessor.set(new ProcessorState(ProcessorService.DEFAULT, defaultPaymentUri));
-        } else if (ProcessorService.FALLBACK.equals(service)) {
-            healthyProcessor.set(new ProcessorState(ProcessorService.FALLBACK, fallbackPaymentUri));
+    public PaymentSummary getPaymentsSummary(Instant from, Instant to) {
+        long start = System.nanoTime();
+        try {
+            return repository.getPaymentsSummary(from, to);
+        } finally {
+            SUMMARY_LATENCY.recordSince(start);
         }
     }
 
-    public void processPayment(Payment request) {
-        CompletableFuture.supplyAsync(() -> {
-                repository.enqueuePayment(request);
-                return true;
-        }, workers);
+    public void awaitPendingSaves() {
+        repository.awaitPendingSaves();
     }
 
-    public PaymentSummary getPaymentsSummary() {
-        return repository.getPaymentsSummary(null, null);
+    public SummaryVersion getSummaryVersion() {
+        return repository.getSummaryVersion();
     }
 
-    public PaymentSummary getPaymentsSummary(Instant from, Instant to) {
-        return repository.getPaymentsSummary(from, to);
+    public long getLateWrites(long fromMillis, long toMillis) {
+        return repository.getLateWrites(fromMillis, toMillis);
+    }
+
+    public PaymentSummary getLocalPaymentsSummary(Instant from, Instant to) {
+        return repository.getLocalPaymentsSummary(from, to);
     }
 
     public void purgeAllData() {
+        retryScheduler.clear();
         repository.purgeAllData();
     }
 
+    public void purgeLocalData() {
+        retryScheduler.clear();
+        repository.purgeLocalData();
+    }
+
+    public int prefetchDepth() {
+        return prefetcher.depth();
+    }
+
+    public int prefetchBuffered() {
+        return prefetcher.buffered();
+    }
+
+    public int concurrencyLimit(ProcessorService service) {
+        return limiter(service).limit();
+    }
+
+    public int inFlight(ProcessorService service) {
+        return limiter(service).inFlight();
+    }
+
+    public long retriesScheduled() {
+        return retryScheduler.scheduledCount();
+    }
+
+    public long retriesDropped() {
+        return retryScheduler.droppedCount();
+    }
+
     public void closeRepository() throws IOException {
+        admission.close();
+        enqueueBatcher.close();
+        prefetcher.close();
+        retryScheduler.close();
+        scheduler.shutdownNow();
+        defaultClient.close();
+        fallbackClient.close();
+        try {
+            repository.releaseHealthLeadership(instanceId);
+        } catch (Exception ignore) {
+        }
         repository.close();
     }
 
@@ -0,0 +1,145 @@
+package com.gasparbarancelli.interactor;
+
+import com.gasparbarancelli.entity.ProcessorHealth;
+import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.transport.model.ServiceHealthRequest;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the processor for each payment from what is known about both of them: the {@code failing} flag and
+ * {@code minResponseTime} advertised by the health endpoint, plus an EWMA of the latencies and of the error
+ * rate of our own calls. DEFAULT is cheaper, so it is kept unless it is failing or its expected latency
+ * is several times the fallback's; while it is degraded every {@code PROBE_EVERY}-th payment still goes to
+ * it, so its latency keeps being measured and traffic returns once it recovers.
+ * The request timeout follows the expected latency of the chosen processor.
+ */
+class ProcessorRouter {
+
+    private static final int EWMA_SHIFT = 3;
+    private static final long ERROR_SCALE = 1_000_000;
+    private static final long DEGRADED_RATIO = 3;
+    private static final long DEGRADED_MIN_MILLIS = 100;
+    private static final int PROBE_EVERY = 16;
+    private static final long TIMEOUT_FACTOR = 4;
+    private static final long TIMEOUT_MARGIN_MILLIS = 200;
+    private static final long MIN_TIMEOUT_MILLIS = 500;
+    private static final long MAX_TIMEOUT_MILLIS = 2000;
+
+    record Route(ProcessorService service, Duration timeout) {
+    }
+
+    private final ProcessorStats defaultStats;
+    private final ProcessorStats fallbackStats;
+    private final AtomicLong probes = new AtomicLong();
+    private volatile ProcessorService preferred = ProcessorService.DEFAULT;
+
+    ProcessorRouter() {
+        this.defaultStats = new ProcessorStats(ProcessorService.DEFAULT);
+        this.fallbackStats = new ProcessorStats(ProcessorService.FALLBACK);
+    }
+
+    Route route() {
+        if (preferred == ProcessorService.FALLBACK) {
+            return fallbackStats.route();
+        }
+        long defaultExpected = defaultStats.expectedMillis();
+        boolean degraded = !fallbackStats.failing
+                && defaultExpected > DEGRADED_MIN_MILLIS
+                && defaultExpected > DEGRADED_RATIO * fallbackStats.expectedMillis();
+        if (degraded && probes.incrementAndGet() % PROBE_EVERY != 0) {
+            return fallbackStats.route();
+        }
+        return defaultStats.route();
+    }
+
+    /**
+     * Route to {@code service} regardless of the preference, for a retry that must stay where it was sent.
+     */
+    Route route(ProcessorService service) {
+        return stats(service).route();
+    }
+
+    /**
+     * Route to the processor other than {@code service}, for a payment its chosen processor has no room for,
+     * or {@code null} while that one is failing.
+     */
+    Route alternative(ProcessorService service) {
+        ProcessorStats other = service == ProcessorService.DEFAULT ? fallbackStats : defaultStats;
+        return other.failing ? null : other.route();
+    }
+
+    void recordCall(ProcessorService service, long latencyNanos, boolean success) {
+        stats(service).record(TimeUnit.NANOSECONDS.toMicros(latencyNanos), success);
+    }
+
+    void updateHealth(ProcessorService service, ServiceHealthRequest health) {
+        ProcessorStats stats = stats(service);
+        stats.failing = health.failing();
+        stats.advertisedMillis = health.minResponseTime();
+    }
+
+    /**
+     * What the health checks established so far, in the form shared with the other instances.
+     */
+    ProcessorHealth health() {
+        return new ProcessorHealth(preferred,
+                defaultStats.failing, (int) defaultStats.advertisedMillis,
+                fallbackStats.failing, (int) fallbackStats.advertisedMillis);
+    }
+
+    void apply(ProcessorHealth health) {
+        updateHealth(ProcessorService.DEFAULT, new ServiceHealthRequest(health.defaultFailing(), health.defaultMinResponseTime()));
+        updateHealth(ProcessorService.FALLBACK, new ServiceHealthRequest(health.fallbackFailing(), health.fallbackMinResponseTime()));
+        prefer(health.preferred());
+    }
+
+    void prefer(ProcessorService service) {
+        this.preferred = service;
+    }
+
+    ProcessorService preferred() {
+        return preferred;
+    }
+
+    private ProcessorStats stats(ProcessorService service) {
+        return service == ProcessorService.DEFAULT ? defaultStats : fallbackStats;
+    }
+
+    private static final class ProcessorStats {
+
+        private final ProcessorService service;
+        private final AtomicLong latencyMicros = new AtomicLong();
+        private final AtomicLong errorRate = new AtomicLong();
+        private volatile boolean failing;
+        private volatile long advertisedMillis;
+
+        private ProcessorStats(ProcessorService service) {
+            this.service = service;
+        }
+
+        private void record(long sampleMicros, boolean success) {
+            latencyMicros.accumulateAndGet(sampleMicros, ProcessorStats::ewma);
+            errorRate.accumulateAndGet(success ? 0 : ERROR_SCALE, ProcessorStats::ewma);
+        }
+
+        // the slower of the advertised and the observed latency, inflated by the share of calls that fail
+        private long expectedMillis() {
+            long latency = Math.max(advertisedMillis, latencyMicros.get() / 1000);
+            long successRate = Math.max(ERROR_SCALE / 20, ERROR_SCALE - errorRate.get());
+            return latency * ERROR_SCALE / successRate;
+        }
+
+        private Route route() {
+            long timeout = expectedMillis() * TIMEOUT_FACTOR + TIMEOUT_MARGIN_MILLIS;
+            return new Route(service,
+                    Duration.ofMillis(Math.clamp(timeout, MIN_TIMEOUT_MILLIS, MAX_TIMEOUT_MILLIS)));
+        }
+
+        private static long ewma(long average, long sample) {
+            return average + ((sample - average) >> EWMA_SHIFT);
+        }
+    }
+}
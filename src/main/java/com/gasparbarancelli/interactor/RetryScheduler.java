@@ -0,0 +1,184 @@
+package com.gasparbarancelli.interactor;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.entity.RetryPayment;
+import com.gasparbarancelli.metrics.Counter;
+import com.gasparbarancelli.metrics.Metrics;
+import com.gasparbarancelli.repository.PaymentRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delayed redelivery of payments whose processor call failed. The delay grows exponentially with the attempt
+ * and half of it is jittered, so payments that failed together do not come back together. Short delays wait
+ * in a local timer wheel; longer ones go to {@link PaymentRepository#scheduleRetry}, which survives a restart
+ * and lets any instance pick them up. A single ticker moves whatever is due to a queue that the workers
+ * drain ahead of fresh payments.
+ */
+class RetryScheduler {
+
+    private static final long TICK_MILLIS = 10;
+    private static final int WHEEL_SLOTS = 128;
+    private static final long WHEEL_HORIZON_MILLIS = 1000;
+    private static final long BASE_DELAY_MILLIS = 50;
+    private static final long MAX_DELAY_MILLIS = 10_000;
+    private static final long CLAIM_INTERVAL_MILLIS = 100;
+    private static final int CLAIM_BATCH = 64;
+
+    private record WheelEntry(RetryPayment retry, long dueTick) {
+    }
+
+    private final PaymentRepository repository;
+    private final int maxAttempts;
+    private final List<ConcurrentLinkedQueue<WheelEntry>> wheel;
+    private final ConcurrentLinkedQueue<RetryPayment> due = new ConcurrentLinkedQueue<>();
+    private final Counter scheduled = Metrics.counter("payment_retries_total",
+            "Failed processor calls scheduled for another attempt.", null);
+    private final Counter dropped = Metrics.counter("payment_retry_drops_total",
+            "Payments given up after the last attempt.", null);
+    private final Thread ticker;
+    private volatile long currentTick;
+    private volatile boolean running = true;
+
+    RetryScheduler(PaymentRepository repository, int maxAttempts) {
+        this.repository = repository;
+        this.maxAttempts = Math.min(maxAttempts, RetryPayment.MAX_ATTEMPT);
+        List<ConcurrentLinkedQueue<WheelEntry>> slots = new ArrayList<>(WHEEL_SLOTS);
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            slots.add(new ConcurrentLinkedQueue<>());
+        }
+        this.wheel = List.copyOf(slots);
+        this.currentTick = System.currentTimeMillis() / TICK_MILLIS;
+        this.ticker = Thread.ofVirtual().name("retry-scheduler").start(this::tickLoop);
+    }
+
+    /**
+     * Schedules attempt {@code attempt} of the payment, or drops it once {@code maxAttempts} is exceeded.
+     * A non-null {@code processor} pins the attempt to that processor.
+     */
+    void schedule(Payment payment, int attempt, ProcessorService processor) {
+        if (attempt > maxAttempts) {
+            dropped.increment();
+            return;
+        }
+        scheduled.increment();
+
+        long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt - 1, 20));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        RetryPayment retry = new RetryPayment(payment, attempt, processor);
+        long dueAt = System.currentTimeMillis() + delay;
+
+        if (delay > WHEEL_HORIZON_MILLIS) {
+            try {
+                repository.scheduleRetry(retry, dueAt);
+                return;
+            } catch (Exception ignore) {
+            }
+        }
+        long dueTick = dueAt / TICK_MILLIS;
+        if (dueTick <= currentTick) {
+            due.offer(retry);
+        } else {
+            wheel.get((int) (dueTick % WHEEL_SLOTS)).offer(new WheelEntry(retry, dueTick));
+        }
+    }
+
+    /**
+     * Puts a due retry back behind the others, for one that could not be dispatched yet.
+     */
+    void requeue(RetryPayment retry) {
+        due.offer(retry);
+    }
+
+    int dueCount() {
+        return due.size();
+    }
+
+    RetryPayment pollDue() {
+        return due.poll();
+    }
+
+    long scheduledCount() {
+        return scheduled.sum();
+    }
+
+    long droppedCount() {
+        return dropped.sum();
+    }
+
+    void clear() {
+        for (ConcurrentLinkedQueue<WheelEntry> slot : wheel) {
+            slot.clear();
+        }
+        due.clear();
+    }
+
+    /**
+     * Stops the ticker and hands everything still waiting locally to the repository, due immediately.
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long now = System.currentTimeMillis();
+        List<RetryPayment> pending = new ArrayList<>(due);
+        for (ConcurrentLinkedQueue<WheelEntry> slot : wheel) {
+            for (WheelEntry entry : slot) {
+                pending.add(entry.retry());
+            }
+        }
+        clear();
+        for (RetryPayment retry : pending) {
+            try {
+                repository.scheduleRetry(retry, now);
+            } catch (Exception ignore) {
+            }
+        }
+    }
+
+    private void tickLoop() {
+        long nextClaim = 0;
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS));
+            long now = System.currentTimeMillis();
+            long nowTick = now / TICK_MILLIS;
+            for (long tick = currentTick + 1; tick <= nowTick; tick++) {
+                ConcurrentLinkedQueue<WheelEntry> slot = wheel.get((int) (tick % WHEEL_SLOTS));
+                for (int i = slot.size(); i > 0; i--) {
+                    WheelEntry entry = slot.poll();
+                    if (entry == null) {
+                        break;
+                    }
+                    if (entry.dueTick() <= nowTick) {
+                        due.offer(entry.retry());
+                    } else {
+                        slot.offer(entry);
+                    }
+                }
+                if (tick - currentTick >= WHEEL_SLOTS) {
+                    // a pause longer than a full turn: every slot has been visited already
+                    break;
+                }
+            }
+            currentTick = nowTick;
+
+            if (now >= nextClaim) {
+                nextClaim = now + CLAIM_INTERVAL_MILLIS;
+                try {
+                    due.addAll(repository.claimDueRetries(now, CLAIM_BATCH));
+                } catch (Exception ignore) {
+                }
+            }
+        }
+    }
+}
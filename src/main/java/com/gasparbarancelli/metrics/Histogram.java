@@ -0,0 +1,78 @@
+package com.gasparbarancelli.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in microseconds: every power of two is split into {@code SUB_BUCKETS}
+ * linear buckets, so a bucket is never wider than a quarter of its lower bound, from 1us up to ~18min.
+ * Recording is a few shifts and one atomic increment on a stripe picked by thread id, without allocating.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 30;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+    private static final int STRIPES = 8;
+    // cells of one stripe are padded apart from the next one's
+    private static final int STRIPE_STRIDE = BUCKETS + 16;
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIPE_STRIDE);
+    private final AtomicLongArray sums = new AtomicLongArray(STRIPES * 16);
+
+    Histogram() {
+    }
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int stripe = (int) (Thread.currentThread().threadId() & (STRIPES - 1));
+        counts.getAndIncrement(stripe * STRIPE_STRIDE + bucket(micros));
+        sums.getAndAdd(stripe * 16, micros);
+    }
+
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest value, in microseconds, that falls into {@code bucket}.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] += counts.get(stripe * STRIPE_STRIDE + i);
+            }
+        }
+        return snapshot;
+    }
+
+    long sumMicros() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += sums.get(stripe * 16);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,119 @@
+package com.gasparbarancelli.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of counters, histograms and gauges, rendered in the Prometheus text format.
+ * Metrics are registered once, usually into static fields, and recording never goes through the registry.
+ * Labels are given already formatted, e.g. {@code route="payments"}.
+ */
+public final class Metrics {
+
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    private record Child(String labels, Object metric) {
+    }
+
+    private record Family(String type, String help, List<Child> children) {
+    }
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String labels) {
+        Counter counter = new Counter();
+        register(name, "counter", help, labels, counter);
+        return counter;
+    }
+
+    public static Histogram histogram(String name, String help, String labels) {
+        Histogram histogram = new Histogram();
+        register(name, "histogram", help, labels, histogram);
+        return histogram;
+    }
+
+    public static void gauge(String name, String help, String labels, LongSupplier value) {
+        register(name, "gauge", help, labels, value);
+    }
+
+    public static synchronized String scrape() {
+        StringBuilder out = new StringBuilder(16_384);
+        for (Map.Entry<String, Family> entry : FAMILIES.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type()).append('\n');
+            for (Child child : family.children()) {
+                switch (child.metric()) {
+                    case Counter counter -> sample(out, name, child.labels(), null, counter.sum());
+                    case LongSupplier gauge -> sample(out, name, child.labels(), null, safeGet(gauge));
+                    case Histogram histogram -> writeHistogram(out, name, child.labels(), histogram);
+                    default -> throw new IllegalStateException("Unknown metric " + child.metric());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static synchronized void register(String name, String type, String help, String labels, Object metric) {
+        Family family = FAMILIES.computeIfAbsent(name, key -> new Family(type, help, new ArrayList<>()));
+        if (!family.type().equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type());
+        }
+        family.children().add(new Child(labels == null ? "" : labels, metric));
+    }
+
+    // only the buckets that changed the cumulative count are written, plus +Inf
+    private static void writeHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long[] counts = histogram.snapshot();
+        String bucketName = name + "_bucket";
+        long cumulative = 0;
+        for (int i = 0; i < counts.length - 1; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            cumulative += counts[i];
+            sample(out, bucketName, labels, seconds(Histogram.upperBound(i)), cumulative);
+        }
+        cumulative += counts[counts.length - 1];
+        sample(out, bucketName, labels, "+Inf", cumulative);
+        out.append(name).append("_sum");
+        appendLabels(out, labels, null);
+        out.append(' ').append(seconds(histogram.sumMicros())).append('\n');
+        sample(out, name + "_count", labels, null, cumulative);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String le, long value) {
+        out.append(name);
+        appendLabels(out, labels, le);
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void appendLabels(StringBuilder out, String labels, String le) {
+        boolean hasLabels = !labels.isEmpty();
+        if (!hasLabels && le == null) {
+            return;
+        }
+        out.append('{').append(labels);
+        if (le != null) {
+            out.append(hasLabels ? "," : "").append("le=\"").append(le).append('"');
+        }
+        out.append('}');
+    }
+
+    private static String seconds(long micros) {
+        return String.valueOf(micros / 1_000_000.0);
+    }
+
+    private static long safeGet(LongSupplier gauge) {
+        try {
+            return gauge.getAsLong();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
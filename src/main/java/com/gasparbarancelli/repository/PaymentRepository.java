@@ -2,30 +2,105 @@ package com.gasparbarancelli.repository;
 
 import com.gasparbarancelli.entity.Payment;
 import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.entity.ProcessorHealth;
 import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.entity.RetryPayment;
+import com.gasparbarancelli.entity.SummaryVersion;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
 
 public interface PaymentRepository {
 
+    /**
+     * A payment written more than this after its timestamp is a late write, see {@link #getLateWrites}.
+     */
+    long LATE_WRITE_MILLIS = 1000;
+
     void enqueuePayment(Payment request);
 
+    void enqueuePayments(List<Payment> requests);
+
     Payment dequeuePayment(int workerId);
 
+    List<Payment> dequeuePayments(int count);
+
+    /**
+     * Payments waiting in the queue shared by the instances.
+     */
+    long queueLength();
+
+    /**
+     * Payments that can still be saved before the storage is full, or {@code Long.MAX_VALUE} when it grows as needed.
+     */
+    long remainingCapacity();
+
+    /**
+     * Marks {@code instanceId} as out of work for {@code ttlMillis}, so busier instances share theirs.
+     * A {@code ttlMillis} of zero withdraws the signal.
+     */
+    void signalIdle(String instanceId, long ttlMillis);
+
+    /**
+     * Whether an instance other than {@code instanceId} signalled it is out of work, and the signal has not expired.
+     */
+    boolean isPeerIdle(String instanceId);
+
+    void scheduleRetry(RetryPayment retry, long dueAtMillis);
+
+    List<RetryPayment> claimDueRetries(long nowMillis, int count);
+
     void savePayment(Payment request, ProcessorService service);
 
-    boolean acquireHealthCheckLock();
+    /**
+     * Returns once the payments saved before the call, on any instance, are visible to {@link #getPaymentsSummary}.
+     */
+    void awaitPendingSaves();
+
+    /**
+     * Takes the health check lease for {@code ownerId}, or renews it when {@code ownerId} already holds it.
+     */
+    boolean acquireHealthLeadership(String ownerId, long leaseMillis);
 
-    void releaseHealthCheckLock();
+    void releaseHealthLeadership(String ownerId);
 
-    void storeHealthyProcessor(ProcessorService service);
+    /**
+     * Stores the state and notifies every {@link #subscribeProcessorHealth} listener, including other instances.
+     */
+    void publishProcessorHealth(ProcessorHealth health);
 
-    ProcessorService getHealthyProcessor();
+    /**
+     * Last published state, or {@code null} when nothing was published yet.
+     */
+    ProcessorHealth getProcessorHealth();
+
+    /**
+     * Calls {@code listener} with every published state until the repository is closed.
+     */
+    void subscribeProcessorHealth(Consumer<ProcessorHealth> listener);
 
     PaymentSummary getPaymentsSummary(Instant from, Instant to);
 
+    PaymentSummary getLocalPaymentsSummary(Instant from, Instant to);
+
+    /**
+     * Current version of the data behind {@link #getPaymentsSummary}, read before computing a summary to cache it,
+     * or {@code null} when summaries must not be cached.
+     */
+    SummaryVersion getSummaryVersion();
+
+    /**
+     * Number of late writes, in the current epoch, whose timestamps fall in the time buckets covering
+     * {@code [fromMillis, toMillis]}. Other writes only ever land within {@link #LATE_WRITE_MILLIS} of the present,
+     * so for a range that ended before that, this count changes exactly when a write touches it.
+     */
+    long getLateWrites(long fromMillis, long toMillis);
+
     void purgeAllData();
 
+    void purgeLocalData();
+
     void close() throws IOException;
 }
\ No newline at end of file
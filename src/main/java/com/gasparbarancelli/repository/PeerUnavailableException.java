@@ -0,0 +1,17 @@
+package com.gasparbarancelli.repository;
+
+import java.io.Serial;
+
+/**
+ * Thrown when part of the data lives on a peer instance that cannot be reached. Callers answer
+ * 503 rather than a summary or purge that silently covers only this instance.
+ */
+public class PeerUnavailableException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public PeerUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
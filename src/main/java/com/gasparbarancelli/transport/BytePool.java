@@ -0,0 +1,46 @@
+package com.gasparbarancelli.transport;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class BytePool {
+
+    private final AtomicReferenceArray<byte[]> slots;
+    private final int mask;
+    private final int bufferSize;
+
+    public BytePool(int slots, int bufferSize) {
+        if (Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("slots must be a power of two");
+        }
+        this.slots = new AtomicReferenceArray<>(slots);
+        this.mask = slots - 1;
+        this.bufferSize = bufferSize;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    public byte[] acquire() {
+        int start = (int) Thread.currentThread().threadId();
+        for (int i = 0; i <= mask; i++) {
+            byte[] buffer = slots.getAndSet((start + i) & mask, null);
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[bufferSize];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer.length != bufferSize) {
+            return;
+        }
+        int start = (int) Thread.currentThread().threadId();
+        for (int i = 0; i <= mask; i++) {
+            if (slots.compareAndSet((start + i) & mask, null, buffer)) {
+                return;
+            }
+        }
+    }
+}
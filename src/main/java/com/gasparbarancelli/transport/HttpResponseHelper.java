@@ -8,16 +8,23 @@ import java.nio.charset.StandardCharsets;
 
 public class HttpResponseHelper {
 
-    private static final byte[] METHOD_NOT_ALLOWED = "Method Not Allowed".getBytes(StandardCharsets.UTF_8);
-    private static final byte[] INVALID_REQUEST = """
+    static final byte[] METHOD_NOT_ALLOWED = "Method Not Allowed".getBytes(StandardCharsets.UTF_8);
+    static final byte[] INVALID_REQUEST = """
             {"error":"Invalid request"}
             """.getBytes(StandardCharsets.UTF_8);
-    private static final byte[] INTERNAL_ERROR = """
+    static final byte[] INTERNAL_ERROR = """
             {"error":"Internal server error"}""".getBytes(StandardCharsets.UTF_8);
-    private static final byte[] PURGE_SUCCESS = """
+    static final byte[] TOO_MANY_REQUESTS = """
+            {"error":"Too many payments in flight"}""".getBytes(StandardCharsets.UTF_8);
+    static final byte[] SERVICE_UNAVAILABLE = """
+            {"error":"Payment backlog is full"}""".getBytes(StandardCharsets.UTF_8);
+    static final byte[] PEER_UNAVAILABLE = """
+            {"error":"Peer instance unavailable"}""".getBytes(StandardCharsets.UTF_8);
+    static final byte[] PURGE_SUCCESS = """
             {"status":"success","message":"Payment data purged successfully"}""".getBytes(StandardCharsets.UTF_8);
+    static final String APPLICATION_JSON = "application/json";
+    static final String TEXT_PLAIN = "text/plain; version=0.0.4; charset=utf-8";
     private static final String CONTENT_TYPE = "Content-Type";
-    private static final String APPLICATION_JSON = "application/json";
 
     public static void sendMethodNotAllowed(HttpExchange exchange) throws IOException {
         sendResponse(exchange, 405, METHOD_NOT_ALLOWED);
@@ -31,6 +38,18 @@ public class HttpResponseHelper {
         sendResponse(exchange, 500, INTERNAL_ERROR);
     }
 
+    public static void sendTooManyRequests(HttpExchange exchange) throws IOException {
+        sendResponse(exchange, 429, TOO_MANY_REQUESTS);
+    }
+
+    public static void sendServiceUnavailable(HttpExchange exchange) throws IOException {
+        sendResponse(exchange, 503, SERVICE_UNAVAILABLE);
+    }
+
+    public static void sendPeerUnavailable(HttpExchange exchange) throws IOException {
+        sendResponse(exchange, 503, PEER_UNAVAILABLE);
+    }
+
     public static void sendPurgeSuccess(HttpExchange exchange) throws IOException {
         sendResponse(exchange, 200, PURGE_SUCCESS);
     }
@@ -50,9 +69,18 @@ public class HttpResponseHelper {
         }
     }
 
+    public static void sendTextResponse(HttpExchange exchange, int statusCode, byte[] textBytes) throws IOException {
+        sendResponse(exchange, statusCode, TEXT_PLAIN, textBytes);
+    }
+
     public static void sendResponse(HttpExchange exchange, int statusCode, byte[] responseBytes) throws IOException {
+        sendResponse(exchange, statusCode, APPLICATION_JSON, responseBytes);
+    }
+
+    private static void sendResponse(HttpExchange exchange, int statusCode, String contentType,
+                                     byte[] responseBytes) throws IOException {
         try (exchange) {
-            exchange.getResponseHeaders().set(CONTENT_TYPE, APPLICATION_JSON);
+            exchange.getResponseHeaders().set(CONTENT_TYPE, contentType);
             exchange.sendResponseHeaders(statusCode, responseBytes.length);
 
             try (OutputStream os = exchange.getResponseBody()) {
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
@@ -12,14 +13,16 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import com.gasparbarancelli.entity.Payment;
 import com.gasparbarancelli.entity.PaymentSummary;
 import com.gasparbarancelli.transport.model.PaymentRequestResponse;
-import com.gasparbarancelli.transport.model.PaymentSummaryResponse;
 import com.gasparbarancelli.transport.model.ServiceHealthRequest;
 import com.gasparbarancelli.transport.model.ServiceHealthResponse;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 
 public class JsonUtils {
 
@@ -29,6 +32,13 @@ public class JsonUtils {
     private static final ObjectReader PAYMENT_REQUEST_READER;
     private static final ObjectReader SERVICE_HEALTH_READER;
     private static final ObjectWriter DEFAULT_WRITER;
+    // the field names plus, for each processor, a count of up to 19 digits and an amount of up to 20 characters
+    private static final int MAX_SUMMARY_SIZE = 192;
+    private static final byte[] SUMMARY_DEFAULT = "{\"default\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUMMARY_FALLBACK = "},\"fallback\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUMMARY_END = "}}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOTAL_REQUESTS = "{\"totalRequests\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOTAL_AMOUNT = ",\"totalAmount\":".getBytes(StandardCharsets.US_ASCII);
 
     static {
         JSON_FACTORY = new JsonFactory();
@@ -49,11 +59,14 @@ public class JsonUtils {
     public static Payment parsePaymentRequestDirect(byte[] jsonBytes) {
         try {
             PaymentRequestResponse response = PAYMENT_REQUEST_READER.readValue(jsonBytes);
+            if (response.amount() == null) {
+                throw new IllegalArgumentException("amount must be positive");
+            }
             return new Payment(
                     response.correlationId(),
-                    response.amount()
+                    response.amount().movePointRight(2).longValueExact()
             );
-        } catch (IOException e) {
+        } catch (IOException | ArithmeticException e) {
             throw new IllegalArgumentException("Invalid JSON: " + e.getMessage(), e);
         }
     }
@@ -62,7 +75,7 @@ public class JsonUtils {
         try {
             PaymentRequestResponse response = new PaymentRequestResponse(
                     request.correlationId(),
-                    request.amount(),
+                    BigDecimal.valueOf(request.amountCents(), 2),
                     Instant.now().atOffset(ZoneOffset.UTC).format(ISO_FORMATTER)
             );
 
@@ -72,22 +85,53 @@ public class JsonUtils {
         }
     }
 
+    /**
+     * {@code {"default":{"totalRequests":<n>,"totalAmount":<cents as units.cc>},"fallback":{...}}}, written
+     * straight from the cents, the same bytes Jackson produced from a BigDecimal of scale 2.
+     */
     public static byte[] toPaymentSummaryJsonBytes(PaymentSummary summary) {
-        try {
-            PaymentSummaryResponse response = new PaymentSummaryResponse(
-                    new PaymentSummaryResponse.ProcessorSummaryResponse(
-                            summary.defaultProcessor().totalRequests(),
-                            summary.defaultProcessor().totalAmount()
-                    ),
-                    new PaymentSummaryResponse.ProcessorSummaryResponse(
-                            summary.fallback().totalRequests(),
-                            summary.fallback().totalAmount()
-                    )
-            );
+        byte[] buffer = new byte[MAX_SUMMARY_SIZE];
+        int position = copy(SUMMARY_DEFAULT, buffer, 0);
+        position = writeProcessorSummary(summary.defaultProcessor(), buffer, position);
+        position = copy(SUMMARY_FALLBACK, buffer, position);
+        position = writeProcessorSummary(summary.fallback(), buffer, position);
+        position = copy(SUMMARY_END, buffer, position);
+        return Arrays.copyOf(buffer, position);
+    }
 
-            return DEFAULT_WRITER.writeValueAsBytes(response);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Error creating payment summary JSON", e);
+    public static PaymentSummary parsePaymentSummary(byte[] jsonBytes) {
+        try (JsonParser parser = JSON_FACTORY.createParser(jsonBytes)) {
+            // count and cents of the default processor, then of the fallback
+            long[] totals = new long[4];
+            int offset = -1;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.FIELD_NAME) {
+                    continue;
+                }
+                switch (parser.currentName()) {
+                    case "default" -> offset = 0;
+                    case "fallback" -> offset = 2;
+                    case "totalRequests" -> {
+                        parser.nextToken();
+                        totals[offset] = parser.getLongValue();
+                    }
+                    case "totalAmount" -> {
+                        parser.nextToken();
+                        totals[offset + 1] = parseCents(parser.getText());
+                    }
+                    default -> {
+                        parser.nextToken();
+                        parser.skipChildren();
+                    }
+                }
+            }
+            return new PaymentSummary(
+                    new PaymentSummary.ProcessorSummary(totals[0], totals[1]),
+                    new PaymentSummary.ProcessorSummary(totals[2], totals[3])
+            );
+        } catch (IOException | RuntimeException e) {
+            throw new RuntimeException("Error parsing payment summary", e);
         }
     }
 
@@ -100,4 +144,40 @@ public class JsonUtils {
         }
     }
 
-}
\ No newline at end of file
+    private static int writeProcessorSummary(PaymentSummary.ProcessorSummary summary, byte[] buffer, int position) {
+        position = copy(TOTAL_REQUESTS, buffer, position);
+        position = PaymentPayloadWriter.writeDigits(summary.totalRequests(), buffer, position);
+        position = copy(TOTAL_AMOUNT, buffer, position);
+        return PaymentPayloadWriter.writeAmount(summary.totalAmountCents(), buffer, position);
+    }
+
+    // a plain decimal with at most two fraction digits, the only form the summaries are written in
+    private static long parseCents(String amount) {
+        int point = amount.indexOf('.');
+        int fractionDigits = point < 0 ? 0 : amount.length() - point - 1;
+        if (amount.isEmpty() || point == 0 || fractionDigits > 2) {
+            throw new IllegalArgumentException("Invalid amount: " + amount);
+        }
+        long cents = 0;
+        for (int i = 0; i < amount.length(); i++) {
+            char c = amount.charAt(i);
+            if (i == point) {
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid amount: " + amount);
+            }
+            cents = Math.addExact(Math.multiplyExact(cents, 10), c - '0');
+        }
+        for (int i = fractionDigits; i < 2; i++) {
+            cents = Math.multiplyExact(cents, 10);
+        }
+        return cents;
+    }
+
+    private static int copy(byte[] source, byte[] target, int position) {
+        System.arraycopy(source, 0, target, position, source.length);
+        return position + source.length;
+    }
+
+}
@@ -0,0 +1,396 @@
+package com.gasparbarancelli.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * Minimal HTTP/1.1 server on a single selector thread, with keep-alive and pipelining.
+ * POST /payments is answered on the selector thread; routes that block on the repository
+ * run on the executor and the connection stops reading until their response is written,
+ * so pipelined responses keep the request order.
+ * Binds either a TCP port or, given a {@link UnixDomainSocketAddress}, a Unix domain socket.
+ */
+public class NioHttpServer {
+
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int WRITE_BUFFER_SIZE = 4096;
+    private static final String POST = "POST";
+    private static final String GET = "GET";
+    private static final String OTHER = "OTHER";
+    private static final byte[] PAYMENTS = "/payments".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAYMENTS_SUMMARY = "/payments-summary".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PURGE_PAYMENTS = "/purge-payments".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INTERNAL_LEDGER = "/internal/ledger".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INTERNAL_LEDGER_PURGE = "/internal/ledger-purge".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] METRICS = "/metrics".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION = "connection:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1_0 = "HTTP/1.0".getBytes(StandardCharsets.US_ASCII);
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final PaymentHandler handler;
+    private final ExecutorService blockingExecutor;
+    private final boolean unixDomain;
+    private final Queue<Connection> completed = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    public NioHttpServer(SocketAddress address, int backlog, PaymentHandler handler,
+                         ExecutorService blockingExecutor) throws IOException {
+        this.handler = handler;
+        this.blockingExecutor = blockingExecutor;
+        this.selector = Selector.open();
+        this.unixDomain = address instanceof UnixDomainSocketAddress;
+        if (address instanceof UnixDomainSocketAddress unixAddress) {
+            Files.deleteIfExists(unixAddress.getPath());
+            this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            this.serverChannel.bind(address, backlog);
+            Files.setPosixFilePermissions(unixAddress.getPath(), PosixFilePermissions.fromString("rw-rw-rw-"));
+        } else {
+            this.serverChannel = ServerSocketChannel.open();
+            this.serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            this.serverChannel.bind(address, backlog);
+        }
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public void start() {
+        Thread.ofPlatform().name("http-selector").start(this::run);
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    }
+                }
+                Connection connection;
+                while ((connection = completed.poll()) != null) {
+                    connection.resume();
+                }
+            } catch (Exception ignore) {
+            }
+        }
+        try {
+            selector.close();
+            SocketAddress address = serverChannel.getLocalAddress();
+            serverChannel.close();
+            if (address instanceof UnixDomainSocketAddress unixAddress) {
+                Files.deleteIfExists(unixAddress.getPath());
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            if (!unixDomain) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            var connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private static int indexOfHeaderEnd(byte[] bytes, int from, int limit) {
+        for (int i = from; i + 3 < limit; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equalsAt(byte[] bytes, int from, int to, byte[] expected) {
+        if (to - from != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[from + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] bytes, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[from + i] | 0x20) != prefix[i] && bytes[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] bytes, int from, int to, byte[] token) {
+        for (int i = from; i + token.length <= to; i++) {
+            if (startsWithIgnoreCase(bytes, i, to, token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String method(byte[] bytes, int end) {
+        if (end == 4 && bytes[0] == 'P' && bytes[1] == 'O' && bytes[2] == 'S' && bytes[3] == 'T') {
+            return POST;
+        }
+        if (end == 3 && bytes[0] == 'G' && bytes[1] == 'E' && bytes[2] == 'T') {
+            return GET;
+        }
+        return OTHER;
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        private SelectionKey key;
+        private boolean pending;
+        private boolean closeAfterWrite;
+        private volatile byte[] deferredResponse;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void read() {
+            try {
+                if (channel.read(in) < 0) {
+                    close();
+                    return;
+                }
+                processRequests();
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void resume() {
+            pending = false;
+            write(deferredResponse);
+            deferredResponse = null;
+            processRequests();
+            flush();
+        }
+
+        private void processRequests() {
+            byte[] bytes = in.array();
+            while (!pending && !closeAfterWrite) {
+                int limit = in.position();
+                int consumed = handleRequest(bytes, limit);
+                if (consumed == 0) {
+                    if (limit == bytes.length) {
+                        write(RawHttpResponse.INVALID_REQUEST);
+                        closeAfterWrite = true;
+                    }
+                    return;
+                }
+                System.arraycopy(bytes, consumed, bytes, 0, limit - consumed);
+                in.position(limit - consumed);
+            }
+        }
+
+        // Handles the first request in the buffer and returns the number of bytes it used, or 0 when incomplete.
+        private int handleRequest(byte[] bytes, int limit) {
+            int headerEnd = indexOfHeaderEnd(bytes, 0, limit);
+            if (headerEnd < 0) {
+                return 0;
+            }
+
+            int methodEnd = indexOf(bytes, (byte) ' ', 0, headerEnd);
+            int targetEnd = methodEnd < 0 ? -1 : indexOf(bytes, (byte) ' ', methodEnd + 1, headerEnd);
+            int lineEnd = indexOf(bytes, (byte) '\r', 0, headerEnd + 1);
+            if (targetEnd < 0 || targetEnd > lineEnd) {
+                write(RawHttpResponse.INVALID_REQUEST);
+                closeAfterWrite = true;
+                return limit;
+            }
+            boolean keepAlive = !equalsAt(bytes, targetEnd + 1, lineEnd, HTTP_1_0);
+
+            int contentLength = 0;
+            int lineStart = lineEnd + 2;
+            while (lineStart < headerEnd) {
+                int end = indexOf(bytes, (byte) '\r', lineStart, headerEnd + 1);
+                if (startsWithIgnoreCase(bytes, lineStart, end, CONTENT_LENGTH)) {
+                    contentLength = parseContentLength(bytes, lineStart + CONTENT_LENGTH.length, end);
+                } else if (startsWithIgnoreCase(bytes, lineStart, end, CONNECTION)) {
+                    if (containsIgnoreCase(bytes, lineStart + CONNECTION.length, end, CLOSE)) {
+                        keepAlive = false;
+                    } else if (containsIgnoreCase(bytes, lineStart + CONNECTION.length, end, KEEP_ALIVE)) {
+                        keepAlive = true;
+                    }
+                }
+                lineStart = end + 2;
+            }
+
+            int bodyStart = headerEnd + 4;
+            if (contentLength < 0 || bodyStart + contentLength > bytes.length) {
+                write(RawHttpResponse.INVALID_REQUEST);
+                closeAfterWrite = true;
+                return limit;
+            }
+            if (bodyStart + contentLength > limit) {
+                return 0;
+            }
+            if (!keepAlive) {
+                closeAfterWrite = true;
+            }
+
+            String method = method(bytes, methodEnd);
+            int pathStart = methodEnd + 1;
+            int queryStart = indexOf(bytes, (byte) '?', pathStart, targetEnd);
+            int pathEnd = queryStart < 0 ? targetEnd : queryStart;
+
+            if (equalsAt(bytes, pathStart, pathEnd, PAYMENTS)) {
+                write(handler.handlePayments(method, bytes, bodyStart, contentLength));
+            } else if (equalsAt(bytes, pathStart, pathEnd, PAYMENTS_SUMMARY)) {
+                String target = new String(bytes, pathStart, targetEnd - pathStart, StandardCharsets.ISO_8859_1);
+                defer(() -> handler.handlePaymentsSummary(method, target));
+            } else if (equalsAt(bytes, pathStart, pathEnd, PURGE_PAYMENTS)) {
+                defer(() -> handler.handlePurgePayments(method));
+            } else if (equalsAt(bytes, pathStart, pathEnd, INTERNAL_LEDGER)) {
+                String target = new String(bytes, pathStart, targetEnd - pathStart, StandardCharsets.ISO_8859_1);
+                defer(() -> handler.handleLedgerSummary(method, target));
+            } else if (equalsAt(bytes, pathStart, pathEnd, INTERNAL_LEDGER_PURGE)) {
+                defer(() -> handler.handleLedgerPurge(method));
+            } else if (equalsAt(bytes, pathStart, pathEnd, METRICS)) {
+                defer(() -> handler.handleMetrics(method));
+            } else {
+                write(RawHttpResponse.NOT_FOUND);
+            }
+            return bodyStart + contentLength;
+        }
+
+        private int parseContentLength(byte[] bytes, int from, int to) {
+            int value = 0;
+            boolean digits = false;
+            for (int i = from; i < to; i++) {
+                byte b = bytes[i];
+                if (b >= '0' && b <= '9') {
+                    if (value > READ_BUFFER_SIZE) {
+                        return -1;
+                    }
+                    value = value * 10 + (b - '0');
+                    digits = true;
+                } else if (b != ' ' && b != '\t') {
+                    return -1;
+                }
+            }
+            return digits ? value : -1;
+        }
+
+        private void defer(Supplier<byte[]> task) {
+            pending = true;
+            blockingExecutor.execute(() -> {
+                byte[] response;
+                try {
+                    response = task.get();
+                } catch (RuntimeException e) {
+                    response = RawHttpResponse.INTERNAL_ERROR;
+                }
+                deferredResponse = response;
+                completed.add(this);
+                selector.wakeup();
+            });
+        }
+
+        private void write(byte[] response) {
+            if (out.remaining() < response.length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + response.length));
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            out.put(response);
+        }
+
+        private void flush() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                out.flip();
+                if (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                boolean remaining = out.hasRemaining();
+                out.compact();
+
+                if (!remaining && closeAfterWrite) {
+                    close();
+                    return;
+                }
+                int interest = (pending || closeAfterWrite ? 0 : SelectionKey.OP_READ)
+                        | (remaining ? SelectionKey.OP_WRITE : 0);
+                key.interestOps(interest);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -3,10 +3,15 @@ package com.gasparbarancelli.transport;
 import com.gasparbarancelli.interactor.PaymentService;
 import com.gasparbarancelli.entity.PaymentSummary;
 import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.SummaryVersion;
+import com.gasparbarancelli.metrics.Histogram;
+import com.gasparbarancelli.metrics.Metrics;
+import com.gasparbarancelli.repository.PeerUnavailableException;
 import com.sun.net.httpserver.HttpExchange;
 
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Map;
 
@@ -14,76 +19,303 @@ public class PaymentHandler {
     private final PaymentService paymentService;
     private static final String POST = "POST";
     private static final String GET = "GET";
-    private static final byte[] AMOUNT_ERROR = "Amount must be greater than zero".getBytes();
+    private static final String HTTP_LATENCY = "http_request_duration_seconds";
+    private static final String HTTP_LATENCY_HELP = "Time spent handling a request, by route.";
+    private static final Histogram PAYMENTS_LATENCY = Metrics.histogram(HTTP_LATENCY, HTTP_LATENCY_HELP, "route=\"payments\"");
+    private static final Histogram PAYMENTS_SUMMARY_LATENCY = Metrics.histogram(HTTP_LATENCY, HTTP_LATENCY_HELP, "route=\"payments_summary\"");
+    private static final Histogram PURGE_PAYMENTS_LATENCY = Metrics.histogram(HTTP_LATENCY, HTTP_LATENCY_HELP, "route=\"purge_payments\"");
+    private static final Histogram LEDGER_SUMMARY_LATENCY = Metrics.histogram(HTTP_LATENCY, HTTP_LATENCY_HELP, "route=\"internal_ledger\"");
+    private static final Histogram LEDGER_PURGE_LATENCY = Metrics.histogram(HTTP_LATENCY, HTTP_LATENCY_HELP, "route=\"internal_ledger_purge\"");
+
+    private final SummaryCache summaryCache = new SummaryCache();
 
     public PaymentHandler(PaymentService paymentService) {
         this.paymentService = paymentService;
     }
 
     public void handlePayments(HttpExchange exchange) throws IOException {
-        if (!POST.equals(exchange.getRequestMethod())) {
-            HttpResponseHelper.sendMethodNotAllowed(exchange);
-            return;
+        long start = System.nanoTime();
+        try {
+            if (!POST.equals(exchange.getRequestMethod())) {
+                HttpResponseHelper.sendMethodNotAllowed(exchange);
+                return;
+            }
+
+            try {
+                Payment payment = PaymentRequestParser.parse(exchange.getRequestBody());
+
+                switch (paymentService.processPayment(payment)) {
+                    case ACCEPTED -> sendPaymentAcceptedResponse(exchange);
+                    case THROTTLED -> HttpResponseHelper.sendTooManyRequests(exchange);
+                    case OVERLOADED -> HttpResponseHelper.sendServiceUnavailable(exchange);
+                }
+
+            } catch (IllegalArgumentException e) {
+                HttpResponseHelper.sendInvalidRequest(exchange);
+            } catch (Exception e) {
+                HttpResponseHelper.sendInternalError(exchange);
+            }
+        } finally {
+            PAYMENTS_LATENCY.recordSince(start);
         }
+    }
 
+    public void handlePaymentsSummary(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
         try {
-            byte[] requestBytes = exchange.getRequestBody().readAllBytes();
-            Payment payment = JsonUtils.parsePaymentRequestDirect(requestBytes);
+            if (!GET.equals(exchange.getRequestMethod())) {
+                HttpResponseHelper.sendMethodNotAllowed(exchange);
+                return;
+            }
+
+            try {
+                byte[] jsonBytes = paymentsSummary(exchange.getRequestURI().getQuery()).json();
+                HttpResponseHelper.sendJsonResponse(exchange, 200, jsonBytes);
+            } catch (IllegalArgumentException e) {
+                HttpResponseHelper.sendErrorResponse(exchange, 400, e.getMessage().getBytes());
+            } catch (PeerUnavailableException e) {
+                HttpResponseHelper.sendPeerUnavailable(exchange);
+            } catch (Exception e) {
+                HttpResponseHelper.sendInternalError(exchange);
+            }
+        } finally {
+            PAYMENTS_SUMMARY_LATENCY.recordSince(start);
+        }
+    }
 
-            if (payment.amount().compareTo(BigDecimal.ZERO) <= 0) {
-                HttpResponseHelper.sendErrorResponse(exchange, 400, AMOUNT_ERROR);
+    public void handleLedgerSummary(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!GET.equals(exchange.getRequestMethod())) {
+                HttpResponseHelper.sendMethodNotAllowed(exchange);
                 return;
             }
 
-            paymentService.processPayment(payment);
-            sendPaymentAcceptedResponse(exchange);
+            try {
+                byte[] jsonBytes = localPaymentsSummaryJson(exchange.getRequestURI().getQuery());
+                HttpResponseHelper.sendJsonResponse(exchange, 200, jsonBytes);
+            } catch (IllegalArgumentException e) {
+                HttpResponseHelper.sendErrorResponse(exchange, 400, e.getMessage().getBytes());
+            } catch (Exception e) {
+                HttpResponseHelper.sendInternalError(exchange);
+            }
+        } finally {
+            LEDGER_SUMMARY_LATENCY.recordSince(start);
+        }
+    }
+
+    public void handleLedgerPurge(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!POST.equals(exchange.getRequestMethod())) {
+                HttpResponseHelper.sendMethodNotAllowed(exchange);
+                return;
+            }
 
-        } catch (IllegalArgumentException e) {
-            HttpResponseHelper.sendInvalidRequest(exchange);
-        } catch (Exception e) {
-            HttpResponseHelper.sendInternalError(exchange);
+            try {
+                paymentService.purgeLocalData();
+                HttpResponseHelper.sendPurgeSuccess(exchange);
+            } catch (Exception e) {
+                HttpResponseHelper.sendInternalError(exchange);
+            }
+        } finally {
+            LEDGER_PURGE_LATENCY.recordSince(start);
         }
     }
 
-    public void handlePaymentsSummary(HttpExchange exchange) throws IOException {
-        if (!GET.equals(exchange.getRequestMethod())) {
-            HttpResponseHelper.sendMethodNotAllowed(exchange);
-            return;
+    public void handlePurgePayments(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!POST.equals(exchange.getRequestMethod())) {
+                HttpResponseHelper.sendMethodNotAllowed(exchange);
+                return;
+            }
+
+            try {
+                paymentService.purgeAllData();
+                HttpResponseHelper.sendPurgeSuccess(exchange);
+            } catch (PeerUnavailableException e) {
+                HttpResponseHelper.sendPeerUnavailable(exchange);
+            } catch (Exception e) {
+                HttpResponseHelper.sendInternalError(exchange);
+            }
+        } finally {
+            PURGE_PAYMENTS_LATENCY.recordSince(start);
         }
+    }
 
+    public byte[] handlePayments(String method, byte[] body, int offset, int length) {
+        long start = System.nanoTime();
         try {
-            Map<String, String> queryParams = RequestParser.parseQueryParams(exchange.getRequestURI().getQuery());
+            if (!POST.equals(method)) {
+                return RawHttpResponse.METHOD_NOT_ALLOWED;
+            }
 
-            Instant from = RequestParser.parseFlexibleTime(queryParams.get("from"));
-            Instant to = RequestParser.parseFlexibleTime(queryParams.get("to"));
+            try {
+                Payment payment = PaymentRequestParser.parse(body, offset, length);
 
-            RequestParser.validateTimeRange(from, to);
+                return switch (paymentService.processPayment(payment)) {
+                    case ACCEPTED -> RawHttpResponse.OK;
+                    case THROTTLED -> RawHttpResponse.TOO_MANY_REQUESTS;
+                    case OVERLOADED -> RawHttpResponse.SERVICE_UNAVAILABLE;
+                };
+            } catch (IllegalArgumentException e) {
+                return RawHttpResponse.INVALID_REQUEST;
+            } catch (Exception e) {
+                return RawHttpResponse.INTERNAL_ERROR;
+            }
+        } finally {
+            PAYMENTS_LATENCY.recordSince(start);
+        }
+    }
 
-            PaymentSummary summary = (from != null && to != null)
-                    ? paymentService.getPaymentsSummary(from, to)
-                    : paymentService.getPaymentsSummary();
+    public byte[] handlePaymentsSummary(String method, String target) {
+        long start = System.nanoTime();
+        try {
+            if (!GET.equals(method)) {
+                return RawHttpResponse.METHOD_NOT_ALLOWED;
+            }
 
-            byte[] jsonBytes = JsonUtils.toPaymentSummaryJsonBytes(summary);
-            HttpResponseHelper.sendJsonResponse(exchange, 200, jsonBytes);
-        } catch (IllegalArgumentException e) {
-            HttpResponseHelper.sendErrorResponse(exchange, 400, e.getMessage().getBytes());
-        } catch (Exception e) {
-            HttpResponseHelper.sendInternalError(exchange);
+            try {
+                return paymentsSummary(URI.create(target).getQuery()).response();
+            } catch (IllegalArgumentException e) {
+                return RawHttpResponse.json(400, e.getMessage().getBytes());
+            } catch (PeerUnavailableException e) {
+                return RawHttpResponse.PEER_UNAVAILABLE;
+            } catch (Exception e) {
+                return RawHttpResponse.INTERNAL_ERROR;
+            }
+        } finally {
+            PAYMENTS_SUMMARY_LATENCY.recordSince(start);
         }
     }
 
-    public void handlePurgePayments(HttpExchange exchange) throws IOException {
-        if (!POST.equals(exchange.getRequestMethod())) {
+    public byte[] handlePurgePayments(String method) {
+        long start = System.nanoTime();
+        try {
+            if (!POST.equals(method)) {
+                return RawHttpResponse.METHOD_NOT_ALLOWED;
+            }
+
+            try {
+                paymentService.purgeAllData();
+                return RawHttpResponse.PURGE_SUCCESS;
+            } catch (PeerUnavailableException e) {
+                return RawHttpResponse.PEER_UNAVAILABLE;
+            } catch (Exception e) {
+                return RawHttpResponse.INTERNAL_ERROR;
+            }
+        } finally {
+            PURGE_PAYMENTS_LATENCY.recordSince(start);
+        }
+    }
+
+    public byte[] handleLedgerSummary(String method, String target) {
+        long start = System.nanoTime();
+        try {
+            if (!GET.equals(method)) {
+                return RawHttpResponse.METHOD_NOT_ALLOWED;
+            }
+
+            try {
+                return RawHttpResponse.json(200, localPaymentsSummaryJson(URI.create(target).getQuery()));
+            } catch (IllegalArgumentException e) {
+                return RawHttpResponse.json(400, e.getMessage().getBytes());
+            } catch (Exception e) {
+                return RawHttpResponse.INTERNAL_ERROR;
+            }
+        } finally {
+            LEDGER_SUMMARY_LATENCY.recordSince(start);
+        }
+    }
+
+    public byte[] handleLedgerPurge(String method) {
+        long start = System.nanoTime();
+        try {
+            if (!POST.equals(method)) {
+                return RawHttpResponse.METHOD_NOT_ALLOWED;
+            }
+
+            try {
+                paymentService.purgeLocalData();
+                return RawHttpResponse.PURGE_SUCCESS;
+            } catch (Exception e) {
+                return RawHttpResponse.INTERNAL_ERROR;
+            }
+        } finally {
+            LEDGER_PURGE_LATENCY.recordSince(start);
+        }
+    }
+
+    public void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!GET.equals(exchange.getRequestMethod())) {
             HttpResponseHelper.sendMethodNotAllowed(exchange);
             return;
         }
 
-        try {
-            paymentService.purgeAllData();
-            HttpResponseHelper.sendPurgeSuccess(exchange);
-        } catch (Exception e) {
-            HttpResponseHelper.sendInternalError(exchange);
+        HttpResponseHelper.sendTextResponse(exchange, 200, Metrics.scrape().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public byte[] handleMetrics(String method) {
+        if (!GET.equals(method)) {
+            return RawHttpResponse.METHOD_NOT_ALLOWED;
+        }
+
+        return RawHttpResponse.text(200, Metrics.scrape().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private SummaryCache.Entry paymentsSummary(String query) {
+        Map<String, String> queryParams = RequestParser.parseQueryParams(query);
+
+        Instant from = RequestParser.parseFlexibleTime(queryParams.get("from"));
+        Instant to = RequestParser.parseFlexibleTime(queryParams.get("to"));
+
+        RequestParser.validateTimeRange(from, to);
+
+        boolean ranged = from != null && to != null;
+        long fromMillis = ranged ? from.toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = ranged ? to.toEpochMilli() : Long.MAX_VALUE;
+
+        // saves still buffered on any instance are written first, so the version below already counts them
+        paymentService.awaitPendingSaves();
+
+        // read before the summary, so payments saved meanwhile make the entry stale rather than missing
+        SummaryVersion version = paymentService.getSummaryVersion();
+        long lateWrites = SummaryCache.OPEN;
+        if (version != null) {
+            if (ranged && SummaryCache.isClosed(toMillis)) {
+                lateWrites = paymentService.getLateWrites(fromMillis, toMillis);
+            }
+            SummaryCache.Entry cached = summaryCache.get(fromMillis, toMillis, version, lateWrites);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        PaymentSummary summary = ranged
+                ? paymentService.getPaymentsSummary(from, to)
+                : paymentService.getPaymentsSummary();
+        byte[] json = JsonUtils.toPaymentSummaryJsonBytes(summary);
+
+        if (version == null) {
+            return new SummaryCache.Entry(null, SummaryCache.OPEN, json, RawHttpResponse.json(200, json));
         }
+        return summaryCache.put(fromMillis, toMillis, version, lateWrites, json);
+    }
+
+    private byte[] localPaymentsSummaryJson(String query) {
+        Map<String, String> queryParams = RequestParser.parseQueryParams(query);
+
+        Instant from = RequestParser.parseFlexibleTime(queryParams.get("from"));
+        Instant to = RequestParser.parseFlexibleTime(queryParams.get("to"));
+
+        RequestParser.validateTimeRange(from, to);
+
+        PaymentSummary summary = (from != null && to != null)
+                ? paymentService.getLocalPaymentsSummary(from, to)
+                : paymentService.getLocalPaymentsSummary(null, null);
+
+        return JsonUtils.toPaymentSummaryJsonBytes(summary);
     }
 
     private void sendPaymentAcceptedResponse(HttpExchange exchange) throws IOException {
@@ -0,0 +1,84 @@
+package com.gasparbarancelli.transport;
+
+import com.gasparbarancelli.entity.Payment;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes the payload sent to the payment processors from a pre-rendered byte template:
+ * {@code {"correlationId":"<uuid>","amount":<amount>,"requestedAt":"<timestamp>"}}.
+ */
+public class PaymentPayloadWriter {
+
+    public static final int MAX_PAYLOAD_SIZE = 256;
+
+    private static final byte[] CORRELATION_ID_PREFIX = "{\"correlationId\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AMOUNT_PREFIX = "\",\"amount\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REQUESTED_AT_PREFIX = ",\"requestedAt\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private static volatile CachedTimestamp cachedTimestamp = new CachedTimestamp(-1, new byte[0]);
+
+    private record CachedTimestamp(long millis, byte[] bytes) {
+    }
+
+    public static int write(Payment payment, byte[] target) {
+        return write(payment.correlationId(), payment.amountCents(), System.currentTimeMillis(), target);
+    }
+
+    public static int write(String correlationId, long cents, long requestedAtMillis, byte[] target) {
+        int position = copy(CORRELATION_ID_PREFIX, target, 0);
+        int idLength = correlationId.length();
+        for (int i = 0; i < idLength; i++) {
+            target[position++] = (byte) correlationId.charAt(i);
+        }
+        position = copy(AMOUNT_PREFIX, target, position);
+        position = writeAmount(cents, target, position);
+        position = copy(REQUESTED_AT_PREFIX, target, position);
+        position = copy(timestamp(requestedAtMillis), target, position);
+        return copy(SUFFIX, target, position);
+    }
+
+    private static byte[] timestamp(long millis) {
+        CachedTimestamp cached = cachedTimestamp;
+        if (cached.millis() == millis) {
+            return cached.bytes();
+        }
+        byte[] bytes = TIMESTAMP_FORMATTER.format(Instant.ofEpochMilli(millis)).getBytes(StandardCharsets.US_ASCII);
+        cachedTimestamp = new CachedTimestamp(millis, bytes);
+        return bytes;
+    }
+
+    static int writeAmount(long cents, byte[] target, int position) {
+        position = writeDigits(cents / 100, target, position);
+        long fraction = cents % 100;
+        target[position++] = '.';
+        target[position++] = (byte) ('0' + fraction / 10);
+        target[position++] = (byte) ('0' + fraction % 10);
+        return position;
+    }
+
+    static int writeDigits(long value, byte[] target, int position) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            target[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int copy(byte[] source, byte[] target, int position) {
+        System.arraycopy(source, 0, target, position, source.length);
+        return position + source.length;
+    }
+}
@@ -0,0 +1,395 @@
+package com.gasparbarancelli.transport;
+
+import com.gasparbarancelli.entity.Payment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser for the fixed {@code {"correlationId": "<uuid>", "amount": <number>}} body of POST /payments.
+ * Works directly on the request bytes and parses the amount into cents, without Jackson or BigDecimal arithmetic.
+ */
+public class PaymentRequestParser {
+
+    private static final int MAX_BODY_SIZE = 1024;
+    private static final int UUID_LENGTH = 36;
+    private static final long MAX_CENTS = Long.MAX_VALUE / 100;
+    private static final byte[] CORRELATION_ID = "correlationId".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AMOUNT = "amount".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_NESTING = Long.SIZE;
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final BytePool BUFFERS = new BytePool(64, MAX_BODY_SIZE);
+
+    public static Payment parse(InputStream body) throws IOException {
+        byte[] buffer = BUFFERS.acquire();
+        try {
+            int length = readBody(body, buffer);
+            return parse(buffer, 0, length);
+        } finally {
+            BUFFERS.release(buffer);
+        }
+    }
+
+    public static Payment parse(byte[] bytes, int offset, int length) {
+        var cursor = new Cursor(bytes, offset, offset + length);
+        String correlationId = null;
+        long cents = -1;
+
+        cursor.skipWhitespace();
+        cursor.expect('{');
+        cursor.skipWhitespace();
+        if (cursor.peek() != '}') {
+            while (true) {
+                cursor.skipWhitespace();
+                cursor.expect('"');
+                int keyStart = cursor.position;
+                int keyEnd = cursor.skipString();
+                cursor.skipWhitespace();
+                cursor.expect(':');
+                cursor.skipWhitespace();
+
+                if (cursor.matches(keyStart, keyEnd, CORRELATION_ID)) {
+                    correlationId = cursor.readUuid();
+                } else if (cursor.matches(keyStart, keyEnd, AMOUNT)) {
+                    cents = cursor.readCents();
+                } else {
+                    cursor.skipValue();
+                }
+
+                cursor.skipWhitespace();
+                byte next = cursor.next();
+                if (next == '}') {
+                    break;
+                }
+                if (next != ',') {
+                    throw invalid("expected ',' or '}'");
+                }
+            }
+        } else {
+            cursor.position++;
+        }
+
+        cursor.skipWhitespace();
+        if (cursor.position != cursor.end) {
+            throw invalid("trailing content");
+        }
+        if (correlationId == null) {
+            throw new IllegalArgumentException("correlationId cannot be null");
+        }
+        if (cents <= 0) {
+            throw new IllegalArgumentException("amount must be positive");
+        }
+        return new Payment(correlationId, cents);
+    }
+
+    private static int readBody(InputStream body, byte[] buffer) throws IOException {
+        int length = 0;
+        while (length < buffer.length) {
+            int read = body.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                return length;
+            }
+            length += read;
+        }
+        if (body.read() >= 0) {
+            throw invalid("body too large");
+        }
+        return length;
+    }
+
+    private static IllegalArgumentException invalid(String reason) {
+        return new IllegalArgumentException("Invalid JSON: " + reason);
+    }
+
+    private static final class Cursor {
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+
+        private Cursor(byte[] bytes, int position, int end) {
+            this.bytes = bytes;
+            this.position = position;
+            this.end = end;
+        }
+
+        private byte peek() {
+            if (position >= end) {
+                throw invalid("unexpected end of input");
+            }
+            return bytes[position];
+        }
+
+        private byte next() {
+            byte b = peek();
+            position++;
+            return b;
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw invalid("expected '" + expected + "'");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < end) {
+                byte b = bytes[position];
+                if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        private boolean matches(int start, int stop, byte[] key) {
+            for (int i = start; i < stop; i++) {
+                if (bytes[i] == '\\') {
+                    return unescape(start, stop).equals(new String(key, StandardCharsets.US_ASCII));
+                }
+            }
+            if (stop - start != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (bytes[start + i] != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Slow path for the rare key written with escapes, such as "\u0061mount".
+        private String unescape(int start, int stop) {
+            var key = new StringBuilder(stop - start);
+            for (int i = start; i < stop; i++) {
+                char c = (char) (bytes[i] & 0xFF);
+                if (c != '\\') {
+                    key.append(c);
+                    continue;
+                }
+                char escaped = (char) bytes[++i];
+                switch (escaped) {
+                    case 'u' -> {
+                        if (i + 4 >= stop) {
+                            throw invalid("bad escape in key");
+                        }
+                        try {
+                            key.append((char) Integer.parseInt(new String(bytes, i + 1, 4, StandardCharsets.US_ASCII), 16));
+                        } catch (NumberFormatException e) {
+                            throw invalid("bad escape in key");
+                        }
+                        i += 4;
+                    }
+                    case 'b' -> key.append('\b');
+                    case 'f' -> key.append('\f');
+                    case 'n' -> key.append('\n');
+                    case 'r' -> key.append('\r');
+                    case 't' -> key.append('\t');
+                    default -> key.append(escaped);
+                }
+            }
+            return key.toString();
+        }
+
+        // Skips a string whose opening quote was already consumed and returns the index of the closing quote.
+        private int skipString() {
+            while (true) {
+                byte b = next();
+                if (b == '"') {
+                    return position - 1;
+                }
+                if (b == '\\') {
+                    next();
+                } else if (b >= 0 && b < 0x20) {
+                    throw invalid("control character in string");
+                }
+            }
+        }
+
+        private String readUuid() {
+            expect('"');
+            int start = position;
+            if (end - start < UUID_LENGTH + 1) {
+                throw invalid("correlationId is not a UUID");
+            }
+            for (int i = 0; i < UUID_LENGTH; i++) {
+                byte b = bytes[start + i];
+                boolean valid = (i == 8 || i == 13 || i == 18 || i == 23) ? b == '-' : isHex(b);
+                if (!valid) {
+                    throw invalid("correlationId is not a UUID");
+                }
+            }
+            position = start + UUID_LENGTH;
+            expect('"');
+            return new String(bytes, start, UUID_LENGTH, StandardCharsets.ISO_8859_1);
+        }
+
+        private long readCents() {
+            if (peek() == '-') {
+                throw new IllegalArgumentException("amount must be positive");
+            }
+            long units = 0;
+            int digits = 0;
+            while (position < end && isDigit(bytes[position])) {
+                if (units > MAX_CENTS / 10) {
+                    throw invalid("amount out of range");
+                }
+                units = units * 10 + (bytes[position++] - '0');
+                digits++;
+            }
+            if (digits == 0) {
+                throw invalid("amount is not a number");
+            }
+
+            long fraction = 0;
+            if (position < end && bytes[position] == '.') {
+                position++;
+                int fractionDigits = 0;
+                while (position < end && isDigit(bytes[position])) {
+                    byte digit = bytes[position++];
+                    if (fractionDigits < 2) {
+                        fraction = fraction * 10 + (digit - '0');
+                    } else if (digit != '0') {
+                        throw invalid("amount has more than two decimal places");
+                    }
+                    fractionDigits++;
+                }
+                if (fractionDigits == 0) {
+                    throw invalid("amount is not a number");
+                }
+                if (fractionDigits == 1) {
+                    fraction *= 10;
+                }
+            }
+
+            if (position < end && (bytes[position] == 'e' || bytes[position] == 'E')) {
+                throw invalid("amount exponent is not supported");
+            }
+            if (units > MAX_CENTS || (units == MAX_CENTS && fraction > Long.MAX_VALUE % 100)) {
+                throw invalid("amount out of range");
+            }
+            return units * 100 + fraction;
+        }
+
+        // Skips a value of any kind without building it. Open containers are tracked as a bit stack
+        // (1 = object, 0 = array), so a closing bracket must match its opener and object members need their ':'.
+        private void skipValue() {
+            long objects = 0;
+            int depth = 0;
+            while (true) {
+                byte b = next();
+                switch (b) {
+                    case '"' -> skipString();
+                    case '{', '[' -> {
+                        if (depth == MAX_NESTING) {
+                            throw invalid("nesting too deep");
+                        }
+                        skipWhitespace();
+                        if (peek() == (b == '{' ? '}' : ']')) {
+                            position++;
+                            break;
+                        }
+                        objects = (objects << 1) | (b == '{' ? 1 : 0);
+                        depth++;
+                        if (b == '{') {
+                            skipMemberName();
+                        }
+                        continue;
+                    }
+                    case 't' -> skipLiteral(TRUE);
+                    case 'f' -> skipLiteral(FALSE);
+                    case 'n' -> skipLiteral(NULL);
+                    default -> {
+                        if (b != '-' && !isDigit(b)) {
+                            throw invalid("unsupported value");
+                        }
+                        skipNumber();
+                    }
+                }
+
+                while (true) {
+                    if (depth == 0) {
+                        return;
+                    }
+                    boolean object = (objects & 1) == 1;
+                    skipWhitespace();
+                    byte c = next();
+                    if (c == ',') {
+                        skipWhitespace();
+                        if (object) {
+                            skipMemberName();
+                        }
+                        break;
+                    }
+                    if (c != (object ? '}' : ']')) {
+                        throw invalid("mismatched bracket");
+                    }
+                    objects >>>= 1;
+                    depth--;
+                }
+            }
+        }
+
+        private void skipMemberName() {
+            expect('"');
+            skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+        }
+
+        // The first byte of the literal was already consumed.
+        private void skipLiteral(byte[] literal) {
+            if (end - position < literal.length - 1) {
+                throw invalid("unsupported value");
+            }
+            for (int i = 1; i < literal.length; i++) {
+                if (bytes[position++] != literal[i]) {
+                    throw invalid("unsupported value");
+                }
+            }
+        }
+
+        // The sign or first digit was already consumed; accepts the JSON number grammar.
+        private void skipNumber() {
+            if (bytes[position - 1] == '-') {
+                skipDigits();
+            } else {
+                while (position < end && isDigit(bytes[position])) {
+                    position++;
+                }
+            }
+            if (position < end && bytes[position] == '.') {
+                position++;
+                skipDigits();
+            }
+            if (position < end && (bytes[position] == 'e' || bytes[position] == 'E')) {
+                position++;
+                if (position < end && (bytes[position] == '+' || bytes[position] == '-')) {
+                    position++;
+                }
+                skipDigits();
+            }
+        }
+
+        private void skipDigits() {
+            if (!isDigit(peek())) {
+                throw invalid("unsupported value");
+            }
+            while (position < end && isDigit(bytes[position])) {
+                position++;
+            }
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
+
+        private static boolean isHex(byte b) {
+            return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.gasparbarancelli.transport;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * HTTP/1.1 client for the {@code POST /payments} of one processor. It keeps up to {@code connections}
+ * persistent sockets, opened on demand, and writes each request as a pre-rendered request line and headers
+ * followed by the payload, in a single write. Only the status line and the framing headers of the answer are
+ * parsed; the body is skipped.
+ * <p>
+ * With {@code pipelineDepth > 1} up to that many requests share a socket and their answers are read back in
+ * the order they were written. A caller whose answer does not arrive in time closes the socket, failing the
+ * requests queued behind it on that socket, since their answers can no longer be told apart.
+ * <p>
+ * A socket that already carried an exchange may have been closed by the processor while idle. When writing to
+ * it fails, or it ends before the first byte of the answer, the request is sent once more on a fresh socket.
+ */
+public final class ProcessorClient implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int MAX_LENGTH_DIGITS = 10;
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION = "connection:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNKED = "chunked".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMillis;
+    private final byte[] requestHead;
+    private final int pipelineDepth;
+    private final Connection[] connections;
+    private final Semaphore permits;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed;
+
+    public ProcessorClient(URI paymentsUri, int connections, int pipelineDepth, Duration connectTimeout) {
+        this.host = paymentsUri.getHost();
+        this.port = paymentsUri.getPort() > 0 ? paymentsUri.getPort() : 80;
+        this.connectTimeoutMillis = (int) connectTimeout.toMillis();
+        String path = paymentsUri.getRawPath() == null || paymentsUri.getRawPath().isEmpty() ? "/" : paymentsUri.getRawPath();
+        this.requestHead = ("POST " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + ":" + port + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: ").getBytes(StandardCharsets.US_ASCII);
+        this.pipelineDepth = Math.max(1, pipelineDepth);
+        this.connections = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            this.connections[i] = new Connection();
+        }
+        this.permits = new Semaphore(connections * this.pipelineDepth);
+    }
+
+    /**
+     * Posts {@code length} bytes of {@code body} and returns the status code, waiting at most {@code timeout}
+     * for a free socket and the answer together.
+     */
+    public int post(byte[] body, int length, Duration timeout) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        if (!permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            throw new SocketTimeoutException("No connection available to " + host + ":" + port);
+        }
+        try {
+            return claimConnection().exchange(body, length, deadline);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    // a permit guarantees a connection below the depth, so the scan only repeats when another caller raced us to it
+    private Connection claimConnection() {
+        while (true) {
+            int start = Math.floorMod(next.getAndIncrement(), connections.length);
+            for (int i = 0; i < connections.length; i++) {
+                Connection connection = connections[(start + i) % connections.length];
+                int inFlight = connection.inFlight.get();
+                if (inFlight < pipelineDepth && connection.inFlight.compareAndSet(inFlight, inFlight + 1)) {
+                    return connection;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private final class Connection {
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final byte[] requestBuffer = new byte[requestHead.length + MAX_LENGTH_DIGITS + 4 + PaymentPayloadWriter.MAX_PAYLOAD_SIZE];
+        private volatile Channel channel;
+
+        private Connection() {
+            System.arraycopy(requestHead, 0, requestBuffer, 0, requestHead.length);
+        }
+
+        private int exchange(byte[] body, int length, long deadline) throws IOException, InterruptedException {
+            try {
+                try {
+                    return attempt(body, length, deadline);
+                } catch (StaleConnectionException e) {
+                    // the stale socket was broken down, so this attempt opens a new one
+                    return attempt(body, length, deadline);
+                }
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private int attempt(byte[] body, int length, long deadline) throws IOException, InterruptedException {
+            Channel current;
+            long ticket;
+            writeLock.lock();
+            try {
+                current = channel;
+                if (current == null || current.broken) {
+                    current = open(deadline);
+                    channel = current;
+                }
+                ticket = current.written++;
+                int requestLength = render(body, length);
+                try {
+                    current.out.write(requestBuffer, 0, requestLength);
+                    current.out.flush();
+                } catch (IOException e) {
+                    current.breakDown();
+                    throw ticket > 0 ? new StaleConnectionException(e) : e;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            return current.awaitResponse(ticket, deadline);
+        }
+
+        private int render(byte[] body, int length) {
+            if (length > PaymentPayloadWriter.MAX_PAYLOAD_SIZE) {
+                throw new IllegalArgumentException("Payload larger than " + PaymentPayloadWriter.MAX_PAYLOAD_SIZE + " bytes");
+            }
+            int position = writeDigits(length, requestBuffer, requestHead.length);
+            requestBuffer[position++] = '\r';
+            requestBuffer[position++] = '\n';
+            requestBuffer[position++] = '\r';
+            requestBuffer[position++] = '\n';
+            System.arraycopy(body, 0, requestBuffer, position, length);
+            return position + length;
+        }
+
+        private Channel open(long deadline) throws IOException {
+            if (closed) {
+                throw new IOException("Processor client closed");
+            }
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                throw new SocketTimeoutException("Timed out before connecting to " + host + ":" + port);
+            }
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.connect(new InetSocketAddress(host, port), (int) Math.min(connectTimeoutMillis, remainingMillis));
+                return new Channel(socket);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        private void close() {
+            Channel current = channel;
+            if (current != null) {
+                current.breakDown();
+            }
+        }
+    }
+
+    /**
+     * One socket's lifetime. Tickets are handed out in write order, and each caller reads its answer once
+     * every earlier ticket has read its own.
+     */
+    private static final class Channel {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+        private final ReentrantLock readLock = new ReentrantLock();
+        private final Condition turn = readLock.newCondition();
+        private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private final byte[] line = new byte[256];
+        private int position;
+        private int limit;
+        private long written;
+        private long read;
+        private volatile boolean broken;
+
+        private Channel(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+            this.in = socket.getInputStream();
+        }
+
+        private int awaitResponse(long ticket, long deadline) throws IOException, InterruptedException {
+            readLock.lock();
+            try {
+                while (read != ticket && !broken) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        breakDown();
+                        throw new SocketTimeoutException("Timed out waiting for an earlier response");
+                    }
+                    turn.awaitNanos(remaining);
+                }
+                if (broken) {
+                    throw new IOException("Connection closed before the response");
+                }
+                try {
+                    int status = readResponse(ticket, deadline);
+                    read++;
+                    return status;
+                } catch (IOException e) {
+                    breakDown();
+                    throw e;
+                }
+            } finally {
+                turn.signalAll();
+                readLock.unlock();
+            }
+        }
+
+        private int readResponse(long ticket, long deadline) throws IOException {
+            // status line: HTTP/1.1 200 OK
+            int first;
+            try {
+                first = readByte(deadline);
+            } catch (EOFException | SocketException e) {
+                throw ticket > 0 ? new StaleConnectionException(e) : e;
+            }
+            if (first != ' ') {
+                skipUntil((byte) ' ', deadline);
+            }
+            int status = 0;
+            for (int i = 0; i < 3; i++) {
+                int digit = readByte(deadline) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new IOException("Malformed status line");
+                }
+                status = status * 10 + digit;
+            }
+            skipUntil((byte) '\n', deadline);
+
+            long contentLength = -1;
+            boolean chunked = false;
+            boolean closeAfter = false;
+            while (true) {
+                int lineLength = readLine(line, deadline);
+                if (lineLength == 0) {
+                    break;
+                }
+                if (startsWithIgnoreCase(line, lineLength, CONTENT_LENGTH)) {
+                    contentLength = parseNumber(line, CONTENT_LENGTH.length, lineLength, 10);
+                } else if (startsWithIgnoreCase(line, lineLength, TRANSFER_ENCODING)) {
+                    chunked = containsIgnoreCase(line, lineLength, CHUNKED);
+                } else if (startsWithIgnoreCase(line, lineLength, CONNECTION)) {
+                    closeAfter = containsIgnoreCase(line, lineLength, CLOSE);
+                }
+            }
+
+            if (chunked) {
+                long chunk;
+                while ((chunk = parseNumber(line, 0, readLine(line, deadline), 16)) > 0) {
+                    skip(chunk + 2, deadline);
+                }
+                while (readLine(line, deadline) > 0) {
+                    // trailers
+                }
+            } else if (contentLength >= 0) {
+                skip(contentLength, deadline);
+            } else if (status >= 200 && status != 204 && status != 304) {
+                // body delimited by the end of the connection
+                closeAfter = true;
+            }
+            if (closeAfter) {
+                breakDown();
+            }
+            return status;
+        }
+
+        private int readLine(byte[] line, long deadline) throws IOException {
+            int length = 0;
+            int b;
+            while ((b = readByte(deadline)) != '\n') {
+                if (b != '\r' && length < line.length) {
+                    line[length++] = (byte) b;
+                }
+            }
+            return length;
+        }
+
+        private void skipUntil(byte terminator, long deadline) throws IOException {
+            while (readByte(deadline) != terminator) {
+                // discard
+            }
+        }
+
+        private void skip(long count, long deadline) throws IOException {
+            while (count > 0) {
+                if (position == limit) {
+                    fill(deadline);
+                }
+                int step = (int) Math.min(count, limit - position);
+                position += step;
+                count -= step;
+            }
+        }
+
+        private int readByte(long deadline) throws IOException {
+            if (position == limit) {
+                fill(deadline);
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        private void fill(long deadline) throws IOException {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                throw new SocketTimeoutException("Timed out waiting for the response");
+            }
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, remainingMillis));
+            int count = in.read(buffer, 0, buffer.length);
+            if (count < 0) {
+                throw new EOFException("Connection closed by the processor");
+            }
+            position = 0;
+            limit = count;
+        }
+
+        private void breakDown() {
+            broken = true;
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * A reused socket failed before any byte of the answer arrived: the processor closed it while idle.
+     */
+    private static final class StaleConnectionException extends IOException {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private StaleConnectionException(IOException cause) {
+            super("Keep-alive connection closed by the processor", cause);
+        }
+    }
+
+    private static int writeDigits(int value, byte[] target, int position) {
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            target[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] line, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((line[i] | 0x20) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] line, int length, byte[] token) {
+        for (int start = 0; start + token.length <= length; start++) {
+            int i = 0;
+            while (i < token.length && (line[start + i] | 0x20) == token[i]) {
+                i++;
+            }
+            if (i == token.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long parseNumber(byte[] line, int from, int to, int radix) throws IOException {
+        long value = 0;
+        boolean any = false;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(line[i], radix);
+            if (digit >= 0) {
+                value = value * radix + digit;
+                any = true;
+            } else if (any || line[i] == ';') {
+                break;
+            }
+        }
+        if (!any) {
+            throw new IOException("Malformed number in response");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,54 @@
+package com.gasparbarancelli.transport;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Complete HTTP/1.1 responses (status line, headers and body) pre-encoded for the NIO server.
+ */
+public class RawHttpResponse {
+
+    public static final byte[] OK = encode(200, new byte[0]);
+    public static final byte[] NOT_FOUND = encode(404, new byte[0]);
+    public static final byte[] METHOD_NOT_ALLOWED = encode(405, HttpResponseHelper.METHOD_NOT_ALLOWED);
+    public static final byte[] INVALID_REQUEST = encode(400, HttpResponseHelper.INVALID_REQUEST);
+    public static final byte[] INTERNAL_ERROR = encode(500, HttpResponseHelper.INTERNAL_ERROR);
+    public static final byte[] TOO_MANY_REQUESTS = encode(429, HttpResponseHelper.TOO_MANY_REQUESTS);
+    public static final byte[] SERVICE_UNAVAILABLE = encode(503, HttpResponseHelper.SERVICE_UNAVAILABLE);
+    public static final byte[] PEER_UNAVAILABLE = encode(503, HttpResponseHelper.PEER_UNAVAILABLE);
+    public static final byte[] PURGE_SUCCESS = encode(200, HttpResponseHelper.PURGE_SUCCESS);
+
+    public static byte[] json(int statusCode, byte[] body) {
+        return encode(statusCode, body);
+    }
+
+    public static byte[] text(int statusCode, byte[] body) {
+        return encode(statusCode, HttpResponseHelper.TEXT_PLAIN, body);
+    }
+
+    private static byte[] encode(int statusCode, byte[] body) {
+        return encode(statusCode, HttpResponseHelper.APPLICATION_JSON, body);
+    }
+
+    private static byte[] encode(int statusCode, String contentType, byte[] body) {
+        byte[] head = ("HTTP/1.1 " + statusCode + " " + reason(statusCode) + "\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[head.length + body.length];
+        System.arraycopy(head, 0, response, 0, head.length);
+        System.arraycopy(body, 0, response, head.length, body.length);
+        return response;
+    }
+
+    private static String reason(int statusCode) {
+        return switch (statusCode) {
+            case 200 -> "OK";
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 503 -> "Service Unavailable";
+            default -> "Unknown";
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package com.gasparbarancelli.transport;
+
+import com.gasparbarancelli.entity.SummaryVersion;
+import com.gasparbarancelli.metrics.Counter;
+import com.gasparbarancelli.metrics.Metrics;
+import com.gasparbarancelli.repository.PaymentRepository;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encoded {@code /payments-summary} responses by {@code (from, to)} in epoch millis. An entry is reused while
+ * the repository reports the same {@link SummaryVersion} it was computed under. A range that ended more than
+ * {@code CLOSED_AFTER_MILLIS} ago only receives late writes, such as a replayed batch, so its entry is kept
+ * within the epoch for as long as the late writes counted over its time buckets do not change, whatever is
+ * written elsewhere. The margin over {@link PaymentRepository#LATE_WRITE_MILLIS} covers a write built just
+ * before the range closed and applied after the entry was computed.
+ */
+final class SummaryCache {
+
+    private static final int MAX_ENTRIES = 1024;
+    private static final long CLOSED_AFTER_MILLIS = 5_000;
+    static final long OPEN = -1;
+
+    /**
+     * {@code lateWrites} is {@link #OPEN} for a range that could still receive regular writes when computed.
+     */
+    record Entry(SummaryVersion version, long lateWrites, byte[] json, byte[] response) {
+    }
+
+    private record Key(long from, long to) {
+    }
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final Counter hits = Metrics.counter("payment_summary_cache_hits_total",
+            "Summaries served from the response cache.", null);
+    private final Counter misses = Metrics.counter("payment_summary_cache_misses_total",
+            "Summaries computed from the repository.", null);
+
+    static boolean isClosed(long to) {
+        return to < System.currentTimeMillis() - CLOSED_AFTER_MILLIS;
+    }
+
+    /**
+     * {@code lateWrites} is the repository's count for the range when it {@link #isClosed}, {@link #OPEN} otherwise.
+     */
+    Entry get(long from, long to, SummaryVersion current, long lateWrites) {
+        Entry entry = entries.get(new Key(from, to));
+        if (entry != null && (entry.version().equals(current)
+                || (entry.version().epoch() == current.epoch() && entry.lateWrites() != OPEN
+                && entry.lateWrites() == lateWrites))) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches {@code json} as computed under {@code version} and {@code lateWrites}, both read before the summary.
+     */
+    Entry put(long from, long to, SummaryVersion version, long lateWrites, byte[] json) {
+        Entry entry = new Entry(version, lateWrites, json, RawHttpResponse.json(200, json));
+        if (entries.size() >= MAX_ENTRIES) {
+            // polling clients repeat a handful of ranges; a flood of distinct ones is not worth tracking
+            entries.clear();
+        }
+        entries.put(new Key(from, to), entry);
+        return entry;
+    }
+}
@@ -0,0 +1,122 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.PaymentSummary;
+import com.gasparbarancelli.entity.ProcessorService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedPaymentRepositoryTest {
+
+    private static final String ID = "4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void summarisesSavesOfTheCurrentEpoch() {
+        MappedPaymentRepository repository = new MappedPaymentRepository(directory.resolve("a.ledger"), 16);
+        repository.savePayment(new Payment(ID, 1990), ProcessorService.DEFAULT);
+        repository.purgeAllData();
+        repository.savePayment(new Payment(ID, 1000), ProcessorService.DEFAULT);
+        repository.savePayment(new Payment(ID, 250), ProcessorService.FALLBACK);
+
+        PaymentSummary summary = repository.getPaymentsSummary(null, null);
+        assertEquals(new PaymentSummary.ProcessorSummary(1, 1000), summary.defaultProcessor());
+        assertEquals(new PaymentSummary.ProcessorSummary(1, 250), summary.fallback());
+        assertEquals(13, repository.remainingCapacity());
+        repository.close();
+    }
+
+    @Test
+    void refusesSavesPastCapacity() {
+        MappedPaymentRepository repository = new MappedPaymentRepository(directory.resolve("b.ledger"), 1);
+        repository.savePayment(new Payment(ID, 1), ProcessorService.DEFAULT);
+        assertThrows(IllegalStateException.class,
+                () -> repository.savePayment(new Payment(ID, 1), ProcessorService.DEFAULT));
+        repository.close();
+    }
+
+    /**
+     * Writers keep saving while the ledger is purged. Saves of a round start only after its purge returned and go
+     * to FALLBACK with 2 cents, so each of them has to be counted exactly, whatever the saves of the previous
+     * round still in flight do.
+     */
+    @Test
+    void keepsSavesMadeAfterPurgeWhileOlderOnesAreInFlight() throws InterruptedException {
+        MappedPaymentRepository repository = new MappedPaymentRepository(directory.resolve("c.ledger"), 1_000_000);
+        int writers = 4;
+        int rounds = 20;
+        AtomicLong round = new AtomicLong();
+        AtomicLong[] saved = new AtomicLong[rounds + 1];
+        for (int i = 0; i < saved.length; i++) {
+            saved[i] = new AtomicLong();
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                while (running.get()) {
+                    int current = (int) round.get();
+                    ProcessorService service = current % 2 == 0 ? ProcessorService.DEFAULT : ProcessorService.FALLBACK;
+                    repository.savePayment(new Payment(ID, service == ProcessorService.DEFAULT ? 1 : 2), service);
+                    saved[current].incrementAndGet();
+                }
+            }));
+        }
+        for (int r = 1; r <= rounds; r++) {
+            Thread.sleep(2);
+            repository.purgeAllData();
+            round.set(r);
+            if (r % 2 == 1) {
+                Thread.sleep(5);
+                // every save counted under round r started after its purge, and is in the current epoch
+                long before = saved[r].get();
+                PaymentSummary summary = repository.getPaymentsSummary(null, null);
+                long after = saved[r].get();
+                long fallback = summary.fallback().totalRequests();
+                assertTrue(fallback >= before && fallback <= after + writers,
+                        "round " + r + ": " + fallback + " fallback records for " + before + ".." + after + " saves");
+                assertEquals(2 * fallback, summary.fallback().totalAmountCents());
+            }
+        }
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        PaymentSummary summary = repository.getPaymentsSummary(null, null);
+        // only saves of the previous round that claimed their slot after the last purge
+        assertTrue(summary.fallback().totalRequests() <= writers);
+        assertEquals(2 * summary.fallback().totalRequests(), summary.fallback().totalAmountCents());
+        assertEquals(summary.defaultProcessor().totalRequests(), summary.defaultProcessor().totalAmountCents());
+        repository.close();
+    }
+
+    @Test
+    void letsOneOwnerHoldTheLeaseUntilReleased() {
+        Path file = directory.resolve("d.ledger");
+        MappedPaymentRepository first = new MappedPaymentRepository(file, 1);
+        MappedPaymentRepository second = new MappedPaymentRepository(file, 1);
+
+        assertTrue(first.acquireHealthLeadership("a", 10_000));
+        assertFalse(second.acquireHealthLeadership("b", 10_000));
+        assertTrue(first.acquireHealthLeadership("a", 10_000));
+        second.releaseHealthLeadership("b");
+        assertFalse(second.acquireHealthLeadership("b", 10_000));
+        first.releaseHealthLeadership("a");
+        assertTrue(second.acquireHealthLeadership("b", 10_000));
+        first.close();
+        second.close();
+    }
+}
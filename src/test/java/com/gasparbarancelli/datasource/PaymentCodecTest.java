@@ -0,0 +1,86 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.ProcessorHealth;
+import com.gasparbarancelli.entity.ProcessorService;
+import com.gasparbarancelli.entity.RetryPayment;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PaymentCodecTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3",
+            "4A7901B8-7D26-4D9D-AA19-4DC1C7CF60B3",
+            "00000000-0000-0000-0000-000000000000",
+            "ffffffff-ffff-ffff-ffff-ffffffffffff",
+            "FFFFFFFF-FFFF-FFFF-FFFF-FFFFFFFFFFFF",
+            "4a7901b8-7D26-4d9d-aa19-4dc1c7cf60b3",
+            "4a7901b87d264d9daa194dc1c7cf60b3",
+            "4a7901b8-7d26-4d9d-aa19-4dc1c7cf60bg",
+            "4a7901b87-d26-4d9d-aa19-4dc1c7cf60b3",
+            "not-a-uuid",
+            ""
+    })
+    void roundTripsCorrelationIdVerbatim(String correlationId) {
+        Payment payment = new Payment(correlationId, 1990);
+        assertEquals(payment, PaymentCodec.decode(PaymentCodec.encode(payment)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {1, 99, 1990, 100_000_000, Long.MAX_VALUE})
+    void roundTripsAmount(long cents) {
+        Payment payment = new Payment("4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3", cents);
+        assertEquals(payment, PaymentCodec.decode(PaymentCodec.encode(payment)));
+    }
+
+    @Test
+    void packsCanonicalUuidsIntoSixteenBytes() {
+        assertEquals(1 + 16 + 8, PaymentCodec.encode(new Payment("4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3", 1)).length);
+        assertEquals(1 + 16 + 8, PaymentCodec.encode(new Payment("4A7901B8-7D26-4D9D-AA19-4DC1C7CF60B3", 1)).length);
+        assertEquals(1 + 1 + 10 + 8, PaymentCodec.encode(new Payment("not-a-uuid", 1)).length);
+    }
+
+    @Test
+    void decodesEntriesWrittenWithEnqueueTimestamp() {
+        Payment payment = new Payment("4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3", 1990);
+        byte[] current = PaymentCodec.encode(payment);
+        byte[] legacy = new byte[current.length + 8];
+        System.arraycopy(current, 0, legacy, 0, current.length);
+        legacy[0] |= 1;
+        legacy[legacy.length - 1] = 42;
+        assertEquals(payment, PaymentCodec.decode(legacy));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3", "4A7901B8-7D26-4D9D-AA19-4DC1C7CF60B3", "raw-id"})
+    void roundTripsRetries(String correlationId) {
+        RetryPayment retry = new RetryPayment(new Payment(correlationId, 1990), 7, null);
+        byte[] encoded = PaymentCodec.encodeRetry(retry);
+        assertEquals(retry, PaymentCodec.decodeRetry(encoded));
+        assertArrayEquals(PaymentCodec.encode(retry.payment()), Arrays.copyOfRange(encoded, 1, encoded.length));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ProcessorService.class)
+    void roundTripsRetriesPinnedToProcessor(ProcessorService processor) {
+        for (int attempt : new int[]{1, RetryPayment.MAX_ATTEMPT}) {
+            RetryPayment retry = new RetryPayment(new Payment("4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3", 1990), attempt, processor);
+            assertEquals(retry, PaymentCodec.decodeRetry(PaymentCodec.encodeRetry(retry)));
+        }
+    }
+
+    @Test
+    void roundTripsProcessorHealth() {
+        ProcessorHealth health = new ProcessorHealth(ProcessorService.FALLBACK, true, 120, false, 15);
+        assertEquals(health, PaymentCodec.decodeHealth(PaymentCodec.encodeHealth(health)));
+    }
+}
@@ -0,0 +1,52 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.ProcessorService;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PaymentLedgerTest {
+
+    @Test
+    void sumsInclusiveRangesAcrossBuckets() {
+        PaymentLedger ledger = new PaymentLedger();
+        ledger.record(1000, 100, ProcessorService.DEFAULT);
+        ledger.record(1000, 200, ProcessorService.FALLBACK);
+        ledger.record(1000, 300, ProcessorService.DEFAULT);
+        ledger.record(1005, 400, ProcessorService.FALLBACK);
+        ledger.record(1010, 500, ProcessorService.DEFAULT);
+
+        assertArrayEquals(new long[]{2, 400, 1, 200}, ledger.summary(1000, 1000));
+        assertArrayEquals(new long[]{2, 400, 2, 600}, ledger.summary(999, 1009));
+        assertArrayEquals(new long[]{1, 500, 1, 400}, ledger.summary(1001, 1010));
+        assertArrayEquals(new long[]{0, 0, 0, 0}, ledger.summary(1006, 1009));
+        assertArrayEquals(new long[]{3, 900, 2, 600}, ledger.summary(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void countsATimestampBehindTheLastBucketInTheLastBucket() {
+        PaymentLedger ledger = new PaymentLedger();
+        ledger.record(2000, 100, ProcessorService.DEFAULT);
+        ledger.record(1990, 100, ProcessorService.DEFAULT);
+
+        assertArrayEquals(new long[]{2, 200, 0, 0}, ledger.summary(2000, 2000));
+        assertArrayEquals(new long[]{0, 0, 0, 0}, ledger.summary(1990, 1999));
+    }
+
+    @Test
+    void clearGivesBackGrownColumns() {
+        PaymentLedger ledger = new PaymentLedger();
+        int initial = ledger.capacity();
+        for (int i = 0; i < initial * 3; i++) {
+            ledger.record(i, 1, ProcessorService.DEFAULT);
+        }
+        assertEquals(initial * 4, ledger.capacity());
+
+        ledger.clear();
+        assertEquals(initial, ledger.capacity());
+        assertArrayEquals(new long[]{0, 0, 0, 0}, ledger.summary(Long.MIN_VALUE, Long.MAX_VALUE));
+        ledger.record(5, 7, ProcessorService.FALLBACK);
+        assertArrayEquals(new long[]{0, 0, 1, 7}, ledger.summary(0, 10));
+    }
+}
@@ -0,0 +1,77 @@
+package com.gasparbarancelli.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RespClientTest {
+
+    private ServerSocket server;
+    private Thread serverThread;
+    private RespClient client;
+
+    // Answers each command with ":<n>", n counting the commands received, so replies show their order.
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        serverThread = Thread.ofVirtual().start(() -> {
+            try (Socket socket = server.accept()) {
+                var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                OutputStream out = socket.getOutputStream();
+                long received = 0;
+                String header;
+                while ((header = in.readLine()) != null) {
+                    int arguments = Integer.parseInt(header.substring(1));
+                    for (int i = 0; i < arguments * 2; i++) {
+                        in.readLine();
+                    }
+                    out.write((":" + ++received + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                }
+            } catch (IOException ignored) {
+                // the client closed the connection
+            }
+        });
+        client = new RespClient(server.getInetAddress().getHostAddress(), server.getLocalPort(), 1,
+                Duration.ofSeconds(1), Duration.ofSeconds(2));
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        client.close();
+        server.close();
+        serverThread.join(1000);
+    }
+
+    @Test
+    void pipelineOfOneCommandReturnsAList() {
+        assertEquals(List.of(1L), client.pipeline(List.<Object[]>of(new Object[]{"PING"})));
+    }
+
+    @Test
+    void pipelineReturnsRepliesInOrder() {
+        assertEquals(1L, client.call("PING"));
+        assertEquals(List.of(2L, 3L, 4L), client.pipeline(List.of(
+                new Object[]{"INCR", "a"}, new Object[]{"INCR", "b"}, new Object[]{"GET", "a"})));
+        assertEquals(List.of(5L), client.pipeline(List.<Object[]>of(new Object[]{"GET", "b"})));
+    }
+
+    @Test
+    void emptyPipelineSendsNothing() {
+        assertEquals(List.of(), client.pipeline(List.of()));
+        assertEquals(1L, client.call("PING"));
+    }
+}
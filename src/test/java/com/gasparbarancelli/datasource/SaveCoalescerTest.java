@@ -0,0 +1,82 @@
+package com.gasparbarancelli.datasource;
+
+import com.gasparbarancelli.entity.Payment;
+import com.gasparbarancelli.entity.ProcessorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SaveCoalescerTest {
+
+    private static final Payment PAYMENT = new Payment("4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3", 1990);
+
+    private final List<String> written = new ArrayList<>();
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicReference<String> target = new AtomicReference<>("old");
+    private SaveCoalescer coalescer;
+
+    // a long window, so only the explicit flushes below write anything
+    private SaveCoalescer coalescer() {
+        coalescer = new SaveCoalescer((sequence, batch) -> {
+            synchronized (written) {
+                batch.forEach(save -> written.add(target.get()));
+            }
+        }, pending::set, 1024, 60_000);
+        return coalescer;
+    }
+
+    @AfterEach
+    void close() {
+        coalescer.close();
+    }
+
+    @Test
+    void flagsPendingSavesUntilAFlushWritesThem() {
+        SaveCoalescer saves = coalescer();
+        assertFalse(pending.get());
+        saves.add(PAYMENT, ProcessorService.DEFAULT, 1);
+        assertTrue(pending.get());
+        saves.flush();
+        assertFalse(pending.get());
+        assertEquals(List.of("old"), written);
+    }
+
+    @Test
+    void keepsTheFlagWhileAFailedBatchWaitsForItsReplay() {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        coalescer = new SaveCoalescer((sequence, batch) -> {
+            if (failing.get()) {
+                throw new IllegalStateException("down");
+            }
+        }, pending::set, 1024, 60_000);
+        coalescer.add(PAYMENT, ProcessorService.DEFAULT, 1);
+        try {
+            coalescer.flush();
+        } catch (IllegalStateException expected) {
+            // the batch is kept for the next flush
+        }
+        assertTrue(pending.get());
+        failing.set(false);
+        coalescer.flush();
+        assertFalse(pending.get());
+    }
+
+    @Test
+    void clearRunsTheSwitchoverBeforeTheNextFlush() {
+        SaveCoalescer saves = coalescer();
+        saves.add(PAYMENT, ProcessorService.DEFAULT, 1);
+        saves.clear(() -> target.set("new"));
+        assertFalse(pending.get());
+        saves.add(PAYMENT, ProcessorService.FALLBACK, 2);
+        saves.flush();
+        assertEquals(List.of("new"), written);
+    }
+}
@@ -0,0 +1,161 @@
+package com.gasparbarancelli.transport;
+
+import com.gasparbarancelli.entity.Payment;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PaymentRequestParserTest {
+
+    private static final String ID = "4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3";
+
+    private static Payment parse(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return PaymentRequestParser.parse(bytes, 0, bytes.length);
+    }
+
+    private static Payment parseAmount(String amount) {
+        return parse("{\"correlationId\":\"" + ID + "\",\"amount\":" + amount + "}");
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "19.90, 1990",
+            "19.9, 1990",
+            "19, 1900",
+            "0.01, 1",
+            "0.1, 10",
+            "19.900, 1990",
+            "19.9000000, 1990",
+            "1000000.00, 100000000",
+            "92233720368547758.07, 9223372036854775807"
+    })
+    void parsesAmountIntoCents(String amount, long cents) {
+        assertEquals(cents, parseAmount(amount).amountCents());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "0", "0.00", "-1.00", "19.901", "1e2", "1.5E1", "19.", ".5", "\"19.90\"", "null",
+            "92233720368547758.08", "100000000000000000000"
+    })
+    void rejectsInvalidAmounts(String amount) {
+        assertThrows(IllegalArgumentException.class, () -> parseAmount(amount));
+    }
+
+    @Test
+    void keepsCorrelationIdAsSent() {
+        String upper = ID.toUpperCase();
+        assertEquals(upper, parse("{\"correlationId\":\"" + upper + "\",\"amount\":1}").correlationId());
+    }
+
+    @Test
+    void acceptsFieldsInAnyOrderAndWhitespace() {
+        Payment payment = parse(" \r\n{ \"amount\" :\t19.90 ,\n \"correlationId\" : \"" + ID + "\" }\n ");
+        assertEquals(ID, payment.correlationId());
+        assertEquals(1990, payment.amountCents());
+    }
+
+    @Test
+    void matchesEscapedKeys() {
+        Payment payment = parse("{\"correlation\\u0049d\":\"" + ID + "\",\"\\u0061mount\":19.90}");
+        assertEquals(ID, payment.correlationId());
+        assertEquals(1990, payment.amountCents());
+    }
+
+    @Test
+    void skipsUnknownFields() {
+        Payment payment = parse("{\"requestedAt\":\"2025-07-15T12:34:56.000Z\",\"correlationId\":\"" + ID + "\","
+                + "\"a\\\"b\":-1.5e3,\"flag\":true,\"none\":null,\"amount\":19.90,"
+                + "\"meta\":{\"tags\":[1,\"}\",{\"x\":[]}],\"ok\":false},\"list\":[ ]}");
+        assertEquals(ID, payment.correlationId());
+        assertEquals(1990, payment.amountCents());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "4a7901b87d264d9daa194dc1c7cf60b3",
+            "4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b",
+            "4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3a",
+            "4a7901b87-d26-4d9d-aa19-4dc1c7cf60b3",
+            "4a7901b8-7d26-4d9d-aa19-4dc1c7cf60bg",
+            "{4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b}"
+    })
+    void rejectsMalformedCorrelationIds(String correlationId) {
+        assertThrows(IllegalArgumentException.class,
+                () -> parse("{\"correlationId\":\"" + correlationId + "\",\"amount\":1}"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "{}",
+            "{\"amount\":1}",
+            "{\"correlationId\":\"" + ID + "\"}",
+            "{\"correlationId\":\"" + ID + "\",\"amount\":1",
+            "{\"correlationId\":\"" + ID + "\",\"amount\":1}}",
+            "{\"correlationId\":\"" + ID + "\" \"amount\":1}",
+            "{\"correlationId\":\"" + ID + "\",\"amount\":1,\"x\":}",
+            "{\"correlationId\":\"" + ID + "\",\"amount\":1,\"x\":[1,2}"
+    })
+    void rejectsMalformedBodies(String json) {
+        assertThrows(IllegalArgumentException.class, () -> parse(json));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"x\":[1,2}}",
+            "{\"x\":{\"y\":1]]",
+            "abc",
+            "truth",
+            "nul",
+            "True",
+            "{\"y\" 1}",
+            "{\"y\":1,\"z\"}",
+            "{\"y\":1,}",
+            "[1,]",
+            "[1 2]",
+            "-",
+            "1.",
+            "1e",
+            "1.5e+"
+    })
+    void rejectsMalformedUnknownValues(String value) {
+        assertThrows(IllegalArgumentException.class,
+                () -> parse("{\"correlationId\":\"" + ID + "\",\"x\":" + value + ",\"amount\":1}"));
+    }
+
+    @Test
+    void rejectsNestingDeeperThanTheBracketStack() {
+        String deep = "[".repeat(65) + "]".repeat(65);
+        assertThrows(IllegalArgumentException.class,
+                () -> parse("{\"correlationId\":\"" + ID + "\",\"x\":" + deep + ",\"amount\":1}"));
+        String nested = "[".repeat(64) + "]".repeat(64);
+        assertEquals(100, parse("{\"correlationId\":\"" + ID + "\",\"x\":" + nested + ",\"amount\":1}").amountCents());
+    }
+
+    @Test
+    void readsFromStream() throws IOException {
+        byte[] body = ("{\"correlationId\":\"" + ID + "\",\"amount\":19.90}").getBytes(StandardCharsets.UTF_8);
+        Payment payment = PaymentRequestParser.parse(new ByteArrayInputStream(body));
+        assertEquals(ID, payment.correlationId());
+        assertEquals(1990, payment.amountCents());
+    }
+
+    @Test
+    void rejectsOversizedBody() {
+        String padding = "x".repeat(2048);
+        byte[] body = ("{\"pad\":\"" + padding + "\",\"correlationId\":\"" + ID + "\",\"amount\":1}")
+                .getBytes(StandardCharsets.UTF_8);
+        assertThrows(IllegalArgumentException.class,
+                () -> PaymentRequestParser.parse(new ByteArrayInputStream(body)));
+    }
+}
@@ -0,0 +1,80 @@
+package com.gasparbarancelli.transport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProcessorClientTest {
+
+    private static final byte[] BODY = "{}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OK = "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final AtomicInteger accepted = new AtomicInteger();
+    private ServerSocket server;
+    private Thread serverThread;
+    private ProcessorClient client;
+
+    // answers one request per connection and then closes it, as a processor dropping idle keep-alive sockets
+    private URI startServer(boolean answer) throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        serverThread = Thread.ofVirtual().start(() -> {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    accepted.incrementAndGet();
+                    var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                    int contentLength = 0;
+                    String line;
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {
+                        if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                            contentLength = Integer.parseInt(line.substring(15).trim());
+                        }
+                    }
+                    in.skip(contentLength);
+                    if (answer) {
+                        socket.getOutputStream().write(OK);
+                    }
+                } catch (IOException ignored) {
+                    // closed by the test
+                }
+            }
+        });
+        return URI.create("http://127.0.0.1:" + server.getLocalPort() + "/payments");
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        client.close();
+        server.close();
+        serverThread.join(1000);
+    }
+
+    @Test
+    void resendsOnAFreshSocketWhenTheProcessorClosedTheIdleOne() throws Exception {
+        client = new ProcessorClient(startServer(true), 1, 1, Duration.ofSeconds(1));
+        assertEquals(200, client.post(BODY, BODY.length, Duration.ofSeconds(2)));
+        Thread.sleep(50);
+        assertEquals(200, client.post(BODY, BODY.length, Duration.ofSeconds(2)));
+        assertEquals(200, client.post(BODY, BODY.length, Duration.ofSeconds(2)));
+        assertEquals(3, accepted.get());
+    }
+
+    @Test
+    void doesNotResendWhenAFreshSocketEndsWithoutAnAnswer() throws Exception {
+        client = new ProcessorClient(startServer(false), 1, 1, Duration.ofSeconds(1));
+        assertThrows(IOException.class, () -> client.post(BODY, BODY.length, Duration.ofSeconds(2)));
+        assertEquals(1, accepted.get());
+    }
+}
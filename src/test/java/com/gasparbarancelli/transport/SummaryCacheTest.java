@@ -0,0 +1,47 @@
+package com.gasparbarancelli.transport;
+
+import com.gasparbarancelli.entity.SummaryVersion;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SummaryCacheTest {
+
+    private static final byte[] JSON = "{}".getBytes(StandardCharsets.US_ASCII);
+
+    private final SummaryCache cache = new SummaryCache();
+
+    @Test
+    void reusesOpenRangesOnlyUnderTheSameVersion() {
+        long to = System.currentTimeMillis();
+        assertFalse(SummaryCache.isClosed(to));
+        cache.put(0, to, new SummaryVersion(1, 10), SummaryCache.OPEN, JSON);
+
+        assertNotNull(cache.get(0, to, new SummaryVersion(1, 10), SummaryCache.OPEN));
+        assertNull(cache.get(0, to, new SummaryVersion(1, 11), SummaryCache.OPEN));
+    }
+
+    @Test
+    void keepsClosedRangesUntilALateWriteTouchesThem() {
+        long to = System.currentTimeMillis() - 60_000;
+        assertTrue(SummaryCache.isClosed(to));
+        cache.put(0, to, new SummaryVersion(1, 10), 3, JSON);
+
+        assertNotNull(cache.get(0, to, new SummaryVersion(1, 500), 3));
+        assertNull(cache.get(0, to, new SummaryVersion(1, 501), 4));
+        assertNull(cache.get(0, to, new SummaryVersion(2, 0), 3));
+    }
+
+    @Test
+    void doesNotTrustRangesThatClosedAfterTheyWereCached() {
+        long to = System.currentTimeMillis() - 60_000;
+        cache.put(0, to, new SummaryVersion(1, 10), SummaryCache.OPEN, JSON);
+
+        assertNull(cache.get(0, to, new SummaryVersion(1, 11), 0));
+    }
+}